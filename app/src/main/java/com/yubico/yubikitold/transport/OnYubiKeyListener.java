@@ -1,7 +1,17 @@
 package com.yubico.yubikitold.transport;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 public interface OnYubiKeyListener {
     void onYubiKey(@Nullable YubiKeyTransport transport);
+
+    /**
+     * Called when one of the connected YubiKeys is removed, before onYubiKey(null) is called once
+     * no YubiKey remains connected.
+     *
+     * @param transport A transport identifying the removed YubiKey, which can't be connected to.
+     */
+    default void onYubiKeyRemoved(@NonNull YubiKeyTransport transport) {
+    }
 }
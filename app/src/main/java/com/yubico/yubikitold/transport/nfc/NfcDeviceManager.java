@@ -34,11 +34,13 @@ public class NfcDeviceManager {
             public void onTag(final Tag tag) {
                 final OnYubiKeyListener nfcDeviceListener = NfcDeviceManager.this.listener;
                 if (nfcDeviceListener != null) {
+                    // Created before posting, so that its discovery time includes the hand over.
+                    final NfcTransport transport = new NfcTransport(tag);
                     handler.post(new Runnable() {
                         @Override
                         public void run() {
                             Log.d("yubikit", "On tag: " + nfcDeviceListener);
-                            nfcDeviceListener.onYubiKey(new NfcTransport(tag));
+                            nfcDeviceListener.onYubiKey(transport);
                         }
                     });
                 } else {
@@ -3,10 +3,13 @@ package com.yubico.yubikitold.transport.nfc;
 import android.nfc.Tag;
 import android.nfc.tech.IsoDep;
 
+import com.yubico.yubikitold.transport.Apdus;
+import com.yubico.yubikitold.transport.CommandApdu;
 import com.yubico.yubikitold.transport.Iso7816Connection;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 class NfcIso7816Connection implements Iso7816Connection {
     private final IsoDep card;
@@ -18,16 +21,32 @@ class NfcIso7816Connection implements Iso7816Connection {
     }
 
     @Override
-    public byte[] send(byte cla, byte ins, byte p1, byte p2, byte[] data) throws IOException {
-        byte[] apdu = ByteBuffer.allocate(data.length + 5)
-                .put(cla)
-                .put(ins)
-                .put(p1)
-                .put(p2)
-                .put((byte) data.length)
-                .put(data, 0, data.length)
-                .array();
-        return card.transceive(apdu);
+    public synchronized byte[] send(byte cla, byte ins, byte p1, byte p2, byte[] data) throws IOException {
+        return card.transceive(Apdus.encodeShort(cla, ins, p1, p2, data));
+    }
+
+    @Override
+    public synchronized byte[] sendWithLe(byte cla, byte ins, byte p1, byte p2, int le) throws IOException {
+        return card.transceive(Apdus.encodeShortWithLe(cla, ins, p1, p2, le));
+    }
+
+    @Override
+    public boolean isExtendedLengthSupported() {
+        return card.isExtendedLengthApduSupported();
+    }
+
+    @Override
+    public synchronized byte[] sendExtended(byte cla, byte ins, byte p1, byte p2, byte[] data) throws IOException {
+        return card.transceive(Apdus.encodeExtended(cla, ins, p1, p2, data));
+    }
+
+    @Override
+    public synchronized List<byte[]> sendBatch(List<CommandApdu> commands) throws IOException {
+        List<byte[]> responses = new ArrayList<>(commands.size());
+        for (CommandApdu command : commands) {
+            responses.add(card.transceive(Apdus.encode(command)));
+        }
+        return responses;
     }
 
     @Override
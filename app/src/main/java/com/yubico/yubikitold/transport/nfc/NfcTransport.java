@@ -1,12 +1,12 @@
 package com.yubico.yubikitold.transport.nfc;
 
-import android.nfc.FormatException;
-import android.nfc.NdefMessage;
 import android.nfc.Tag;
-import android.nfc.tech.Ndef;
 
 import androidx.annotation.Nullable;
 
+import com.yubico.yubikitold.application.ApduException;
+import com.yubico.yubikitold.application.ndef.NdefApplication;
+import com.yubico.yubikitold.transport.Iso7816Connection;
 import com.yubico.yubikitold.transport.YubiKeyTransport;
 
 import java.io.IOException;
@@ -21,27 +21,26 @@ public class NfcTransport implements YubiKeyTransport {
 
     private boolean ndefRead = false;
     private byte[] ndefData;
+    private final long discoveredAt;
 
     public NfcTransport(Tag tag) {
+        this.discoveredAt = System.nanoTime();
         this.tag = tag;
     }
 
+    /**
+     * Reads the NDEF message over a connection from {@link #connect()}, so that the tag doesn't
+     * need to be reconnected with the Ndef technology. The applet selected on the connection is
+     * left changed, so this should be done before selecting the one to use.
+     */
     @Nullable
-    public byte[] readRawNdefData() throws IOException {
+    public byte[] readRawNdefData(Iso7816Connection connection) throws IOException {
         if (!ndefRead) {
             ndefRead = true;
-            Ndef ndef = Ndef.get(tag);
-            if (ndef == null) {
-                return null;
-            }
-            ndef.connect();
             try {
-                NdefMessage ndefMessage = ndef.getNdefMessage();
-                ndefData = ndefMessage != null ? ndefMessage.toByteArray() : null;
-            } catch (FormatException e) {
-                //Ignore
-            } finally {
-                ndef.close();
+                ndefData = new NdefApplication(connection).readNdefMessage();
+            } catch (ApduException e) {
+                //Ignore, no NDEF applet
             }
         }
 
@@ -49,13 +48,13 @@ public class NfcTransport implements YubiKeyTransport {
     }
 
     @Nullable
-    public byte[] getNdefBytes() throws IOException {
-        return parseNdefOtp(readRawNdefData());
+    public byte[] getNdefBytes(Iso7816Connection connection) throws IOException {
+        return parseNdefOtp(readRawNdefData(connection));
     }
 
     @Nullable
-    public String getNdefOtp() throws IOException {
-        byte[] ndefBytes = getNdefBytes();
+    public String getNdefOtp(Iso7816Connection connection) throws IOException {
+        byte[] ndefBytes = getNdefBytes(connection);
         return ndefBytes == null ? null : new String(ndefBytes, Charset.forName("UTF-8"));
     }
 
@@ -85,4 +84,9 @@ public class NfcTransport implements YubiKeyTransport {
 
         return null;
     }
-}
\ No newline at end of file
+
+    @Override
+    public long getDiscoveredAt() {
+        return discoveredAt;
+    }
+}
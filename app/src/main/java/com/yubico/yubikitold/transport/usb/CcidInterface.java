@@ -0,0 +1,84 @@
+package com.yubico.yubikitold.transport.usb;
+
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+import android.hardware.usb.UsbManager;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * The CCID interface of a USB device, with its bulk endpoints.
+ */
+final class CcidInterface {
+    final UsbInterface usbInterface;
+    final UsbEndpoint bulkIn, bulkOut;
+
+    private CcidInterface(UsbInterface usbInterface, UsbEndpoint bulkIn, UsbEndpoint bulkOut) {
+        this.usbInterface = usbInterface;
+        this.bulkIn = bulkIn;
+        this.bulkOut = bulkOut;
+    }
+
+    static CcidInterface find(UsbDevice usbDevice) throws IOException {
+        UsbInterface ccidInterface = null;
+        for (int i = 0; i < usbDevice.getInterfaceCount(); i++) {
+            UsbInterface usbInterface = usbDevice.getInterface(i);
+            if (usbInterface.getInterfaceClass() == UsbConstants.USB_CLASS_CSCID) {
+                ccidInterface = usbInterface;
+                break;
+            }
+        }
+        if (ccidInterface == null) {
+            throw new IOException("No CCID interface found!");
+        }
+
+        UsbEndpoint bulkIn = null;
+        UsbEndpoint bulkOut = null;
+        for (int i = 0; i < ccidInterface.getEndpointCount(); i++) {
+            UsbEndpoint endpoint = ccidInterface.getEndpoint(i);
+            if (endpoint.getType() == UsbConstants.USB_ENDPOINT_XFER_BULK) {
+                if (endpoint.getDirection() == UsbConstants.USB_DIR_IN) {
+                    bulkIn = endpoint;
+                } else {
+                    bulkOut = endpoint;
+                }
+            }
+        }
+        if (bulkIn == null || bulkOut == null) {
+            throw new IOException("Unable to find endpoints!");
+        }
+        return new CcidInterface(ccidInterface, bulkIn, bulkOut);
+    }
+
+    /**
+     * Opens the device and claims the interface.
+     */
+    UsbDeviceConnection open(UsbManager usbManager, UsbDevice usbDevice) throws IOException {
+        UsbDeviceConnection connection = usbManager.openDevice(usbDevice);
+        if (connection == null) {
+            throw new IOException("Unable to connect to USB device!");
+        }
+        connection.claimInterface(usbInterface, true);
+        return connection;
+    }
+
+    static CcidDescriptor findDescriptor(UsbDeviceConnection connection) {
+        byte[] rawDescriptors = connection.getRawDescriptors();
+        CcidDescriptor descriptor = rawDescriptors == null ? null : CcidDescriptor.find(rawDescriptors);
+        if (descriptor != null && descriptor.getExchangeLevel().compareTo(CcidDescriptor.ExchangeLevel.SHORT_APDU) < 0) {
+            Log.w("yubikit", "Reader doesn't support APDU level exchange: " + descriptor.getExchangeLevel());
+        }
+        return descriptor;
+    }
+
+    /**
+     * Creates a framer with buffers sized for the largest message the reader supports.
+     */
+    static CcidFramer createFramer(int inPacketSize, CcidDescriptor descriptor) {
+        return new CcidFramer(inPacketSize, descriptor == null ? 0 : descriptor.maxMessageLength);
+    }
+}
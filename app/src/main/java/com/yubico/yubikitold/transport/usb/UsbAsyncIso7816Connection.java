@@ -0,0 +1,175 @@
+package com.yubico.yubikitold.transport.usb;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbManager;
+import android.hardware.usb.UsbRequest;
+
+import androidx.annotation.Nullable;
+
+import com.yubico.yubikitold.transport.CommandApdu;
+import com.yubico.yubikitold.transport.Iso7816Connection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A CCID connection using queued UsbRequests instead of blocking bulk transfers.
+ * <p>
+ * A thread owned by the connection keeps an IN request outstanding at all times and completes
+ * each command as its response arrives, so callers of {@link #sendAsync} are free to do other
+ * work meanwhile, such as while the YubiKey waits for touch. Time extensions sent by the reader
+ * while waiting are reported to the {@link TimeExtensionListener}. Commands are sent one at a
+ * time, in the order they were given, by a {@link CcidRequestQueue}.
+ * <p>
+ * The blocking methods of Iso7816Connection wait for the response, failing if nothing at all is
+ * received from the reader for 10 seconds.
+ */
+public class UsbAsyncIso7816Connection implements Iso7816Connection {
+    /**
+     * Called on the I/O thread of the connection.
+     */
+    public interface TimeExtensionListener {
+        void onTimeExtension(UsbAsyncIso7816Connection connection);
+    }
+
+    private final UsbDeviceConnection connection;
+    private final CcidDescriptor descriptor;
+    private final UsbRequest inRequest, outRequest;
+    private final CcidRequestQueue queue;
+    private final byte[] atr;
+    private volatile TimeExtensionListener timeExtensionListener;
+    private boolean released = false;
+
+    public UsbAsyncIso7816Connection(UsbManager usbManager, UsbDevice usbDevice) throws IOException {
+        CcidInterface ccidInterface = CcidInterface.find(usbDevice);
+        connection = ccidInterface.open(usbManager, usbDevice);
+        descriptor = CcidInterface.findDescriptor(connection);
+        inRequest = new UsbRequest();
+        outRequest = new UsbRequest();
+        if (!inRequest.initialize(connection, ccidInterface.bulkIn) || !outRequest.initialize(connection, ccidInterface.bulkOut)) {
+            connection.close();
+            throw new IOException("Unable to initialize USB requests");
+        }
+
+        queue = new CcidRequestQueue(new CcidRequestQueue.Transfers() {
+            @Override
+            public boolean queueOut(ByteBuffer buffer, int length) {
+                return outRequest.queue(buffer, length);
+            }
+
+            @Override
+            public boolean queueIn(ByteBuffer buffer, int length) {
+                return inRequest.queue(buffer, length);
+            }
+        }, ccidInterface.bulkIn.getMaxPacketSize(), ccidInterface.bulkOut.getMaxPacketSize(), descriptor == null ? 0 : descriptor.maxMessageLength);
+        queue.setTimeExtensionListener(new CcidRequestQueue.TimeExtensionListener() {
+            @Override
+            public void onTimeExtension() {
+                TimeExtensionListener listener = timeExtensionListener;
+                if (listener != null) {
+                    listener.onTimeExtension(UsbAsyncIso7816Connection.this);
+                }
+            }
+        });
+
+        Thread ioThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runIo();
+            }
+        }, "YubiKit USB I/O");
+        ioThread.setDaemon(true);
+        ioThread.start();
+
+        try {
+            atr = queue.enqueue(null).await();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public byte[] getAtr() {
+        return atr;
+    }
+
+    public void setTimeExtensionListener(@Nullable TimeExtensionListener listener) {
+        timeExtensionListener = listener;
+    }
+
+    @Override
+    public boolean isExtendedLengthSupported() {
+        return descriptor != null && descriptor.isExtendedApduSupported();
+    }
+
+    /**
+     * Queues a command, returning without waiting for the response.
+     */
+    public CcidRequestQueue.ResponseFuture sendAsync(CommandApdu command) {
+        return queue.enqueue(command);
+    }
+
+    @Override
+    public byte[] send(byte cla, byte ins, byte p1, byte p2, byte[] data) throws IOException {
+        return queue.enqueue(new CommandApdu(cla, ins, p1, p2, data, false)).await();
+    }
+
+    @Override
+    public byte[] sendExtended(byte cla, byte ins, byte p1, byte p2, byte[] data) throws IOException {
+        return queue.enqueue(new CommandApdu(cla, ins, p1, p2, data, true)).await();
+    }
+
+    /**
+     * Queues all commands at once, so that each is sent as soon as the previous one completes.
+     */
+    @Override
+    public List<byte[]> sendBatch(List<CommandApdu> commands) throws IOException {
+        List<CcidRequestQueue.ResponseFuture> futures = new ArrayList<>(commands.size());
+        for (CommandApdu command : commands) {
+            futures.add(queue.enqueue(command));
+        }
+        List<byte[]> responses = new ArrayList<>(commands.size());
+        for (CcidRequestQueue.ResponseFuture future : futures) {
+            responses.add(future.await());
+        }
+        return responses;
+    }
+
+    private void runIo() {
+        if (!queue.start()) {
+            return;
+        }
+        while (!queue.isClosed()) {
+            UsbRequest request = connection.requestWait();
+            if (request == null) {
+                queue.close(new IOException("USB request failed"));
+                return;
+            } else if (request == outRequest) {
+                queue.onOutComplete();
+            } else if (request == inRequest) {
+                queue.onInComplete();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        queue.close(new IOException("Connection closed"));
+        synchronized (this) {
+            // The I/O thread may have closed the queue on failure, leaving the release to us.
+            if (released) {
+                return;
+            }
+            released = true;
+        }
+        inRequest.cancel();
+        outRequest.cancel();
+        // Closing the connection makes requestWait return, ending the I/O thread.
+        connection.close();
+        inRequest.close();
+        outRequest.close();
+    }
+}
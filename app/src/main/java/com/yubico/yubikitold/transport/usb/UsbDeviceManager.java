@@ -14,6 +14,21 @@ import com.yubico.yubikitold.transport.OnYubiKeyListener;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Detects YubiKeys connected over USB.
+ * <p>
+ * Detection is driven by the USB attach and detach broadcasts, with a single scan of the connected
+ * devices each time a listener is set. Each matching device is reported to the listener, so several
+ * YubiKeys can be connected at once. Polling can be enabled as a fallback with
+ * {@link #setPollInterval(long)}, for devices which don't deliver the broadcasts.
+ */
 public final class UsbDeviceManager {
     private final static String ACTION_USB_PERMISSION = "com.yubico.yubikit.USB_PERMISSION";
 
@@ -25,7 +40,8 @@ public final class UsbDeviceManager {
     private final UsbManager usbManager;
     private transient OnYubiKeyListener usbDeviceListener = null;
     private transient boolean requirePermission = true;
-    private transient boolean hasUsb = false;
+    private transient long pollInterval = 0;
+    private final Map<String, UsbDevice> devices = new LinkedHashMap<>();
     private transient UsbDevicePredicate deviceFiler = new UsbDevicePredicate() {
         @Override
         public boolean test(UsbDevice usbDevice) {
@@ -56,6 +72,16 @@ public final class UsbDeviceManager {
         deviceFiler = filter;
     }
 
+    /**
+     * Sets the interval to poll for connected devices at, in addition to listening for broadcasts.
+     * Takes effect the next time a listener is set.
+     *
+     * @param pollInterval The interval in milliseconds, or 0 (default) to disable polling.
+     */
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
     public void setOnYubiKeyListener(final @Nullable OnYubiKeyListener listener) {
         Log.d("yubikit", "Set USB listener: " + listener);
         if (this.usbDeviceListener != null || listener != null) {
@@ -68,9 +94,15 @@ public final class UsbDeviceManager {
                     }
                     usbDeviceListener = listener;
                     if (listener != null) {
-                        hasUsb = false;
-                        context.registerReceiver(usbReceiver, new IntentFilter(ACTION_USB_PERMISSION));
-                        handler.post(pollUsbRunnable);
+                        devices.clear();
+                        IntentFilter filter = new IntentFilter(ACTION_USB_PERMISSION);
+                        filter.addAction(UsbManager.ACTION_USB_DEVICE_ATTACHED);
+                        filter.addAction(UsbManager.ACTION_USB_DEVICE_DETACHED);
+                        context.registerReceiver(usbReceiver, filter, null, handler);
+                        scan();
+                        if (pollInterval > 0) {
+                            handler.postDelayed(pollUsbRunnable, pollInterval);
+                        }
                     }
                 }
             });
@@ -81,19 +113,85 @@ public final class UsbDeviceManager {
         setOnYubiKeyListener(usbDeviceListener);
     }
 
-    @Nullable
-    private UsbDevice findDevice() {
+    /**
+     * Handles an Activity being started by a YubiKey being attached, as given by an intent filter
+     * for UsbManager.ACTION_USB_DEVICE_ATTACHED. Other intents are ignored.
+     *
+     * @param intent The Intent the Activity was started or resumed with.
+     */
+    public void handleIntent(@NonNull Intent intent) {
+        if (UsbManager.ACTION_USB_DEVICE_ATTACHED.equals(intent.getAction())) {
+            final UsbDevice device = intent.getParcelableExtra(UsbManager.EXTRA_DEVICE);
+            if (device != null) {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onAttached(device);
+                    }
+                });
+            }
+        }
+    }
+
+    private List<UsbDevice> findDevices() {
+        List<UsbDevice> found = new ArrayList<>();
         UsbDevicePredicate filter = deviceFiler;
         if (filter != null) {
             for (UsbDevice device : usbManager.getDeviceList().values()) {
                 if(filter.test(device)) {
-                    return device;
+                    found.add(device);
                 }
             }
         }
-        return null;
+        return found;
+    }
+
+    private void scan() {
+        List<UsbDevice> found = findDevices();
+        Set<String> names = new HashSet<>();
+        for (UsbDevice device : found) {
+            names.add(device.getDeviceName());
+        }
+        for (UsbDevice device : new ArrayList<>(devices.values())) {
+            if (!names.contains(device.getDeviceName())) {
+                onDetached(device);
+            }
+        }
+        for (UsbDevice device : found) {
+            onDeviceFound(device);
+        }
+    }
+
+    private void onAttached(UsbDevice device) {
+        UsbDevicePredicate filter = deviceFiler;
+        if (filter != null && !devices.containsKey(device.getDeviceName()) && filter.test(device)) {
+            onDeviceFound(device);
+        }
+    }
+
+    // Called for devices which have already passed the filter.
+    private void onDeviceFound(UsbDevice device) {
+        if (usbDeviceListener == null || devices.containsKey(device.getDeviceName())) {
+            return;
+        }
+        devices.put(device.getDeviceName(), device);
+        if (!requirePermission || usbManager.hasPermission(device)) {
+            onDeviceWithPermissions(device);
+        } else {
+            Log.d("yubikit", "Device lacks permission, request: " + device);
+            usbManager.requestPermission(device, pendingUsbPermissionIntent);
+        }
     }
 
+    private void onDetached(UsbDevice device) {
+        OnYubiKeyListener listener = usbDeviceListener;
+        if (listener != null && devices.remove(device.getDeviceName()) != null) {
+            listener.onYubiKeyRemoved(new UsbTransport(usbManager, device));
+            if (devices.isEmpty()) {
+                listener.onYubiKey(null);
+            }
+        }
+    }
 
     private void onDeviceWithPermissions(UsbDevice device) {
         Log.d("yubikit", "Has permission for:" + device);
@@ -103,24 +201,27 @@ public final class UsbDeviceManager {
         }
     }
 
+    // Registered with the handler, so all callbacks run on its thread.
     private final class UsbBroadcastReceiver extends BroadcastReceiver {
         @Override
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
+            UsbDevice device = intent.getParcelableExtra(UsbManager.EXTRA_DEVICE);
+            if (device == null) {
+                return;
+            }
             if (ACTION_USB_PERMISSION.equals(action)) {
-                final UsbDevice device = intent.getParcelableExtra(UsbManager.EXTRA_DEVICE);
                 if (intent.getBooleanExtra(UsbManager.EXTRA_PERMISSION_GRANTED, true)) {
-                    if (device != null) {
-                        handler.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                onDeviceWithPermissions(device);
-                            }
-                        });
+                    if (devices.containsKey(device.getDeviceName())) {
+                        onDeviceWithPermissions(device);
                     }
                 } else {
                     Log.d("yubikit", "permission denied for device " + device);
                 }
+            } else if (UsbManager.ACTION_USB_DEVICE_ATTACHED.equals(action)) {
+                onAttached(device);
+            } else if (UsbManager.ACTION_USB_DEVICE_DETACHED.equals(action)) {
+                onDetached(device);
             }
         }
     }
@@ -128,23 +229,9 @@ public final class UsbDeviceManager {
     private final class PollUsbRunnable implements Runnable {
         @Override
         public void run() {
-            OnYubiKeyListener listener = usbDeviceListener;
-            if (listener != null) {
-                UsbDevice device = findDevice();
-                if (hasUsb == (device == null)) {
-                    hasUsb = device != null;
-                    if (hasUsb) {
-                        if (!requirePermission || usbManager.hasPermission(device)) {
-                            onDeviceWithPermissions(device);
-                        } else {
-                            Log.d("yubikit", "Device lacks permission, request: " + device);
-                            usbManager.requestPermission(device, pendingUsbPermissionIntent);
-                        }
-                    } else {
-                        listener.onYubiKey(null);
-                    }
-                }
-                handler.postDelayed(this, 500);
+            if (usbDeviceListener != null && pollInterval > 0) {
+                scan();
+                handler.postDelayed(this, pollInterval);
             }
         }
     }
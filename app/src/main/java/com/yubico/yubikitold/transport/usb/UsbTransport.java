@@ -17,12 +17,18 @@ public class UsbTransport implements YubiKeyTransport {
 
     private final UsbManager usbManager;
     private final UsbDevice usbDevice;
+    private final long discoveredAt;
 
     public UsbTransport(UsbManager usbManager, UsbDevice usbDevice) {
+        this.discoveredAt = System.nanoTime();
         this.usbManager = usbManager;
         this.usbDevice = usbDevice;
     }
 
+    public UsbDevice getUsbDevice() {
+        return usbDevice;
+    }
+
     public boolean hasPermission() {
         return usbManager.hasPermission(usbDevice);
     }
@@ -49,4 +55,15 @@ public class UsbTransport implements YubiKeyTransport {
         return new UsbIso7816Connection(usbManager, usbDevice);
     }
 
+    /**
+     * Connects using queued USB requests, which don't block while waiting for the YubiKey.
+     */
+    public UsbAsyncIso7816Connection connectAsync() throws IOException {
+        return new UsbAsyncIso7816Connection(usbManager, usbDevice);
+    }
+
+    @Override
+    public long getDiscoveredAt() {
+        return discoveredAt;
+    }
 }
@@ -0,0 +1,38 @@
+package com.yubico.yubioath.client
+
+import android.util.Log
+import com.yubico.yubikitold.application.ApduTraceBuffer
+import com.yubico.yubikitold.application.ApduTracer
+import com.yubico.yubikitold.application.Hex
+import com.yubico.yubioath.BuildConfig
+
+/**
+ * Keeps the most recent APDUs in memory so they can be logged on errors. Debug builds also log
+ * every APDU as it is sent. Sensitive data (keys, OTPs) is redacted by the applications, and
+ * release builds keep only headers, lengths and status words, leaving out all data.
+ */
+object ApduLog : ApduTracer {
+    private const val TAG = "yubikit"
+
+    private val level = if (BuildConfig.DEBUG) ApduTracer.Level.DATA else ApduTracer.Level.HEADERS
+    private val buffer = ApduTraceBuffer(16, 64, level)
+
+    override fun getLevel(): ApduTracer.Level = level
+
+    override fun onExchange(application: String, cla: Byte, ins: Byte, p1: Byte, p2: Byte, command: ByteArray?, commandLength: Int, response: ByteArray?, responseLength: Int, sw: Short) {
+        buffer.onExchange(application, cla, ins, p1, p2, command, commandLength, response, responseLength, sw)
+        if (BuildConfig.DEBUG) {
+            val sb = StringBuilder(application).append(" SEND: ")
+            Hex.append(sb, byteArrayOf(cla, ins, p1, p2), 0, 4).append(" [").append(commandLength).append("] ")
+            if (command == null) sb.append("<redacted>") else Hex.append(sb, command, 0, commandLength)
+            sb.append(" RECV: [").append(responseLength).append("] ")
+            if (response == null) sb.append("<redacted>") else Hex.append(sb, response, 0, responseLength)
+            Log.d(TAG, String.format("%s %04x", sb, sw))
+        }
+    }
+
+    fun dump(tag: String) {
+        Log.e(tag, buffer.dump(StringBuilder("Recent APDUs:\n")).toString())
+        buffer.clear()
+    }
+}
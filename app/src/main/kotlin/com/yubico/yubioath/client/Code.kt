@@ -3,16 +3,27 @@ package com.yubico.yubioath.client
 import android.os.Parcel
 import android.os.Parcelable
 
-data class Code(val value: String, val validFrom: Long, val validUntil: Long) : Parcelable {
+/**
+ * A calculated code. TOTP codes may carry the code of the following time step as [next], so the
+ * code can be advanced at the period boundary without talking to the device.
+ */
+data class Code(val value: String, val validFrom: Long, val validUntil: Long, val next: Code? = null) : Parcelable {
     private constructor(parcel: Parcel) : this(
             parcel.readString()!!,
             parcel.readLong(),
-            parcel.readLong())
+            parcel.readLong(),
+            parcel.readParcelable(Code::class.java.classLoader))
+
+    /**
+     * Returns the code valid at the given time, which is the next code once this one has expired.
+     */
+    fun advance(timestamp: Long): Code = if (timestamp >= validUntil) next?.advance(timestamp) ?: this else this
 
     override fun writeToParcel(parcel: Parcel, flags: Int) {
         parcel.writeString(value)
         parcel.writeLong(validFrom)
         parcel.writeLong(validUntil)
+        parcel.writeParcelable(next, flags)
     }
 
     override fun describeContents(): Int = 0
@@ -26,4 +37,4 @@ data class Code(val value: String, val validFrom: Long, val validUntil: Long) :
             return arrayOfNulls(size)
         }
     }
-}
\ No newline at end of file
+}
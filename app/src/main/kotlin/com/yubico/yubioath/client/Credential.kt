@@ -2,6 +2,7 @@ package com.yubico.yubioath.client
 
 import android.os.Parcel
 import android.os.Parcelable
+import com.yubico.yubikitold.application.oath.CredentialId
 import com.yubico.yubikitold.application.oath.OathType
 
 data class Credential(val deviceId: String, val key: String, val type: OathType?, val touch: Boolean) : Parcelable {
@@ -19,21 +20,10 @@ data class Credential(val deviceId: String, val key: String, val type: OathType?
     )
 
     init {
-        var data = key
-
-        period = if (data.contains(Regex("""^\d+/"""))) {
-            val parts = data.split('/', limit = 2)
-            data = parts[1]
-            parts[0].toInt()
-        } else 30
-
-        issuer = if (':' in data) {
-            val parts = data.split(':', limit = 2)
-            data = parts[1]
-            parts[0]
-        } else null
-
-        name = data
+        val id = CredentialId.parse(key)
+        period = id.period
+        issuer = id.issuer
+        name = id.name
     }
 
     override fun toString(): String = "Credential($key)"
@@ -0,0 +1,116 @@
+package com.yubico.yubioath.client
+
+import android.content.SharedPreferences
+import com.yubico.yubikitold.application.oath.CredentialId
+import com.yubico.yubikitold.application.oath.HashAlgorithm
+import com.yubico.yubikitold.application.oath.OathType
+import org.json.JSONArray
+import org.json.JSONException
+import org.json.JSONObject
+
+/**
+ * Stores the credential list of each device, so it can be shown before the device is connected.
+ * Only metadata is stored, never secrets or codes.
+ */
+class CredentialCache(private val prefs: SharedPreferences) {
+    companion object {
+        private const val LAST_DEVICE_ID = "lastDeviceId"  // Written by earlier versions.
+        private const val DEVICE_PREFIX = "device:"
+        private const val CONNECTED_PREFIX = "connected:"
+    }
+
+    data class Entry(val key: String, val type: OathType?, val algorithm: HashAlgorithm?, val touch: Boolean) {
+        val period: Int get() = CredentialId.parse(key).period
+    }
+
+    private val entries = mutableMapOf<String, List<Entry>>()
+    private val connected = mutableSetOf<String>()
+
+    /**
+     * The device most recently connected, as ordered by a counter stored per device. The counter is
+     * only stored the first time a device is updated through this cache, so that refreshing two
+     * connected devices in turn doesn't rewrite the preferences each time.
+     */
+    val lastDeviceId: String?
+        get() = connectionOrder().maxBy { it.value }?.key ?: prefs.getString(LAST_DEVICE_ID, null)
+
+    private fun connectionOrder(): Map<String, Long> = prefs.all.entries
+            .filter { it.key.startsWith(CONNECTED_PREFIX) && it.value is Long }
+            .associate { it.key.removePrefix(CONNECTED_PREFIX) to it.value as Long }
+
+    fun hasDevice(deviceId: String): Boolean = prefs.contains(DEVICE_PREFIX + deviceId)
+
+    @Synchronized
+    fun getEntries(deviceId: String): List<Entry> = entries.getOrPut(deviceId) {
+        prefs.getString(DEVICE_PREFIX + deviceId, null)?.let {
+            try {
+                decode(it)
+            } catch (e: JSONException) {
+                null
+            } catch (e: IllegalArgumentException) {
+                null
+            }
+        }.orEmpty()
+    }
+
+    fun getCredentials(deviceId: String): List<Credential> = getEntries(deviceId).filter { !it.key.startsWith("_hidden:") }.map {
+        Credential(deviceId, it.key, it.type, it.touch)
+    }
+
+    /**
+     * Replaces the stored list for a device, keeping known hash algorithms for credentials which
+     * are already stored, as CALCULATE ALL doesn't report them.
+     */
+    @Synchronized
+    fun update(deviceId: String, newEntries: List<Entry>) {
+        val existing = getEntries(deviceId).associateBy { it.key }
+        val merged = newEntries.map {
+            if (it.algorithm == null) it.copy(algorithm = existing[it.key]?.algorithm) else it
+        }
+        val editor = prefs.edit()
+        var changed = false
+        if (merged != entries[deviceId] || !hasDevice(deviceId)) {
+            entries[deviceId] = merged
+            editor.putString(DEVICE_PREFIX + deviceId, encode(merged))
+            changed = true
+        }
+        if (connected.add(deviceId) && lastDeviceId != deviceId) {
+            editor.putLong(CONNECTED_PREFIX + deviceId, (connectionOrder().values.max() ?: 0) + 1)
+            changed = true
+        }
+        if (changed) {
+            editor.apply()
+        }
+    }
+
+    @Synchronized
+    fun put(deviceId: String, entry: Entry) = update(deviceId, getEntries(deviceId).filter { it.key != entry.key } + entry)
+
+    @Synchronized
+    fun remove(deviceId: String, key: String) = update(deviceId, getEntries(deviceId).filter { it.key != key })
+
+    private fun encode(entries: List<Entry>): String = JSONArray().apply {
+        entries.forEach {
+            put(JSONObject().apply {
+                put("key", it.key)
+                it.type?.let { type -> put("type", type.value.toInt()) }
+                it.algorithm?.let { algorithm -> put("algorithm", algorithm.value.toInt()) }
+                put("touch", it.touch)
+                put("period", it.period)
+            })
+        }
+    }.toString()
+
+    private fun decode(data: String): List<Entry> = JSONArray(data).let { array ->
+        (0 until array.length()).map { i ->
+            array.getJSONObject(i).run {
+                Entry(
+                        getString("key"),
+                        if (has("type")) OathType.fromValue(getInt("type").toByte()) else null,
+                        if (has("algorithm")) HashAlgorithm.fromValue(getInt("algorithm").toByte()) else null,
+                        getBoolean("touch")
+                )
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.yubico.yubioath.client
 import android.net.Uri
 import com.yubico.yubikitold.application.oath.HashAlgorithm
 import com.yubico.yubikitold.application.oath.OathType
+import com.yubico.yubioath.exc.KeyTooLongException
 import org.apache.commons.codec.binary.Base32
 
 
@@ -80,4 +81,27 @@ data class CredentialData(val secret: ByteArray, var issuer: String?, var name:
     }
 
     val encodedSecret: String = Base32().encodeToString(secret).trimEnd('=')
+
+    /**
+     * The name the credential is stored under on the YubiKey: [period/][issuer:]name.
+     */
+    val key: String
+        get() {
+            var key = if (issuer != null) "$issuer:$name" else name
+            if (oathType == OathType.TOTP && period != 30) {
+                key = "$period/$key"
+            }
+            return key
+        }
+
+    /**
+     * Checks the parts of the credential which don't depend on the YubiKey it is stored on.
+     */
+    fun validate() {
+        if (name.isEmpty()) throw IllegalArgumentException("Name must not be empty")
+        if (secret.isEmpty()) throw IllegalArgumentException("Secret must not be empty")
+        if (digits !in 6..8) throw IllegalArgumentException("Digits must be in range 6-8")
+        if (period <= 0) throw IllegalArgumentException("Period must be positive")
+        if (key.length > 64) throw KeyTooLongException()
+    }
 }
\ No newline at end of file
@@ -30,24 +30,48 @@
 
 package com.yubico.yubioath.client
 
+import androidx.annotation.VisibleForTesting
 import com.yubico.yubioath.keystore.KeyProvider
 import com.yubico.yubioath.keystore.StoredSigner
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.GlobalScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import java.security.MessageDigest
 import java.security.NoSuchAlgorithmException
+import java.util.concurrent.atomic.AtomicInteger
 import javax.crypto.SecretKeyFactory
 import javax.crypto.spec.PBEKeySpec
 
 
 class KeyManager(private val permStore: KeyProvider, private val memStore: KeyProvider) {
+    // Initialized signers from permStore, per device, with the last successful one first.
+    private val signerCache = mutableMapOf<String, List<StoredSigner>>()
+    private var signerGeneration = SIGNER_GENERATION.get()
 
+    @Synchronized
     fun getKeys(deviceId: String): Sequence<StoredSigner> {
+        // Keys changed through another instance, such as the one of the settings, drop the cache.
+        val generation = SIGNER_GENERATION.get()
+        if (generation != signerGeneration) {
+            signerCache.clear()
+            signerGeneration = generation
+        }
         return if (permStore.hasKeys(deviceId)) {
-            permStore.getKeys(deviceId)
+            signerCache.getOrPut(deviceId) {
+                permStore.getKeys(deviceId).map { CachedSigner(deviceId, it) }.toList()
+            }.asSequence()
         } else {
             memStore.getKeys(deviceId)
         }
     }
 
+    @Synchronized
     fun addKey(deviceId: String, secret: ByteArray, remember: Boolean) {
+        signerCache.remove(deviceId)
         if (remember) {
             memStore.clearKeys(deviceId)
             permStore.addKey(deviceId, secret)
@@ -55,24 +79,129 @@ class KeyManager(private val permStore: KeyProvider, private val memStore: KeyPr
             permStore.clearKeys(deviceId)
             memStore.addKey(deviceId, secret)
         }
+        SIGNER_GENERATION.incrementAndGet()
     }
 
+    @Synchronized
     fun clearKeys(deviceId: String) {
+        signerCache.remove(deviceId)
         memStore.clearKeys(deviceId)
         permStore.clearKeys(deviceId)
+        SIGNER_GENERATION.incrementAndGet()
+        clearSecrets()
     }
 
+    @Synchronized
     fun clearAll() {
+        signerCache.clear()
         memStore.clearAll()
         permStore.clearAll()
+        SIGNER_GENERATION.incrementAndGet()
+        clearSecrets()
+    }
+
+    private inner class CachedSigner(val deviceId: String, val delegate: StoredSigner) : StoredSigner {
+        override fun sign(input: ByteArray): ByteArray = synchronized(this) { delegate.sign(input) }
+
+        override fun promote() = synchronized(this@KeyManager) {
+            delegate.promote()
+            // The store keeps only the promoted key, so it is the only candidate left.
+            if (signerCache[deviceId]?.contains(this) == true) {
+                signerCache[deviceId] = listOf(this)
+            }
+        }
     }
 
     companion object {
+        private const val SECRET_CACHE_TTL = 60_000_000_000L  // 1 minute, in ns.
+        private const val SECRET_CACHE_SIZE = 8
+
+        // Changed whenever keys are added or cleared, by any instance.
+        private val SIGNER_GENERATION = AtomicInteger()
+
+        private class CachedSecret(val secret: ByteArray, val created: Long)
+
+        // Recently derived secrets, keyed by salt, password digest and variant.
+        private val secretCache = LinkedHashMap<String, CachedSecret>()
+        private var evictJob: Job? = null
+
+        @VisibleForTesting
+        internal var nanoTime: () -> Long = System::nanoTime
+
+        @VisibleForTesting
+        internal val derivations = AtomicInteger()
+
+        /**
+         * Derives both the standard and the legacy secret for a password in parallel, off the
+         * calling thread. Returns the pair (standard, legacy).
+         */
+        suspend fun calculateSecrets(password: String, id: ByteArray): Pair<ByteArray, ByteArray> = coroutineScope {
+            val legacy = async(Dispatchers.Default) { calculateSecret(password, id, true) }
+            val standard = async(Dispatchers.Default) { calculateSecret(password, id, false) }
+            Pair(standard.await(), legacy.await())
+        }
+
         fun calculateSecret(password: String, id: ByteArray, legacy: Boolean): ByteArray {
             if (password.isEmpty()) {
                 return ByteArray(0)
             }
 
+            val cacheKey = getCacheKey(password, id, legacy)
+            synchronized(secretCache) {
+                evictSecrets()
+                secretCache[cacheKey]?.let { return it.secret.copyOf() }
+            }
+
+            derivations.incrementAndGet()
+            return deriveSecret(password, id, legacy).also {
+                synchronized(secretCache) {
+                    secretCache[cacheKey] = CachedSecret(it.copyOf(), nanoTime())
+                    if (secretCache.size > SECRET_CACHE_SIZE) {
+                        secretCache.remove(secretCache.keys.first())?.secret?.fill(0)
+                    }
+                    scheduleEviction()
+                }
+            }
+        }
+
+        /**
+         * Forgets all derived secrets.
+         */
+        fun clearSecrets() = synchronized(secretCache) {
+            secretCache.values.forEach { it.secret.fill(0) }
+            secretCache.clear()
+            evictJob?.cancel()
+            evictJob = null
+        }
+
+        // Called with the secretCache lock held.
+        private fun evictSecrets() {
+            val now = nanoTime()
+            secretCache.values.removeAll { (now - it.created > SECRET_CACHE_TTL).also { expired -> if (expired) it.secret.fill(0) } }
+        }
+
+        // Called with the secretCache lock held. Wakes up when the oldest secret expires, so that
+        // secrets don't stay in memory until the next derivation.
+        private fun scheduleEviction() {
+            if (evictJob?.isActive == true) return
+            val oldest = secretCache.values.firstOrNull() ?: return
+            val delayMillis = (oldest.created + SECRET_CACHE_TTL - nanoTime()) / 1_000_000 + 1
+            evictJob = GlobalScope.launch {
+                delay(delayMillis)
+                synchronized(secretCache) {
+                    evictJob = null
+                    evictSecrets()
+                    scheduleEviction()
+                }
+            }
+        }
+
+        private fun getCacheKey(password: String, id: ByteArray, legacy: Boolean): String {
+            val digest = MessageDigest.getInstance("SHA-256").digest(password.toByteArray(Charsets.UTF_8))
+            return (id + digest).joinToString("") { "%02x".format(it) } + if (legacy) ":legacy" else ""
+        }
+
+        private fun deriveSecret(password: String, id: ByteArray, legacy: Boolean): ByteArray {
             val factory: SecretKeyFactory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1")
 
             return try {
@@ -0,0 +1,89 @@
+package com.yubico.yubioath.client
+
+import java.util.Locale
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Latency of each stage between a YubiKey being discovered and its codes being shown.
+ *
+ * Stages within one thread are timed with [measure]. Stages which hand over between threads are
+ * timed with marks: [onDiscovered] starts a tap, [onPosted] and [onDelivered] time the LiveData
+ * hand over to the UI, and [onBound] ends the tap once the list is redrawn.
+ */
+object Latency {
+    enum class Stage(val label: String) {
+        DISPATCH("Discovery to listener"),
+        HANDLER("Listener to I/O worker"),
+        CONNECT("Connect"),
+        SELECT("SELECT"),
+        VALIDATE("VALIDATE"),
+        CALCULATE_ALL("CALCULATE ALL"),
+        POST_VALUE("postValue to observer"),
+        BIND("Observer to list bind"),
+        TOTAL("Discovery to codes shown"),
+    }
+
+    private val histograms = Stage.values().associate { it to LatencyHistogram() }
+    private val tapStart = AtomicLong()
+    private val postedAt = AtomicLong()
+    private val deliveredAt = AtomicLong()
+
+    fun record(stage: Stage, nanos: Long) = histograms.getValue(stage).record(nanos)
+
+    inline fun <T> measure(stage: Stage, block: () -> T): T {
+        val start = System.nanoTime()
+        try {
+            return block()
+        } finally {
+            record(stage, System.nanoTime() - start)
+        }
+    }
+
+    /**
+     * Called when a transport reaches the listener, with the System.nanoTime() at which the key was
+     * discovered, or 0 if unknown.
+     */
+    fun onDiscovered(discoveredAt: Long) {
+        if (discoveredAt > 0) {
+            record(Stage.DISPATCH, System.nanoTime() - discoveredAt)
+            tapStart.set(discoveredAt)
+        }
+    }
+
+    fun onPosted() = postedAt.set(System.nanoTime())
+
+    fun onDelivered() {
+        val now = System.nanoTime()
+        val posted = postedAt.getAndSet(0)
+        if (posted > 0) {
+            record(Stage.POST_VALUE, now - posted)
+            deliveredAt.set(now)
+        }
+    }
+
+    fun onBound() {
+        val now = System.nanoTime()
+        val delivered = deliveredAt.getAndSet(0)
+        if (delivered > 0) {
+            record(Stage.BIND, now - delivered)
+            val start = tapStart.getAndSet(0)
+            if (start > 0) {
+                record(Stage.TOTAL, now - start)
+            }
+        }
+    }
+
+    fun snapshot(): Map<Stage, LatencyHistogram.Snapshot> = histograms.mapValues { it.value.snapshot() }
+
+    fun reset() = histograms.values.forEach { it.reset() }
+
+    /**
+     * A plain text report of all stages, with times in milliseconds.
+     */
+    fun report(): String = StringBuilder().apply {
+        append(String.format(Locale.ROOT, "%-26s %6s %8s %8s %8s %8s\n", "Stage (ms)", "n", "p50", "p90", "p99", "max"))
+        snapshot().forEach { (stage, s) ->
+            append(String.format(Locale.ROOT, "%-26s %6d %8.1f %8.1f %8.1f %8.1f\n", stage.label, s.count, s.p50 / 1000.0, s.p90 / 1000.0, s.p99 / 1000.0, s.max / 1000.0))
+        }
+    }.toString()
+}
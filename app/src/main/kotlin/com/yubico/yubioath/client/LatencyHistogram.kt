@@ -0,0 +1,59 @@
+package com.yubico.yubioath.client
+
+/**
+ * A histogram of latencies, in power of two buckets of microseconds. Percentiles are reported as
+ * the upper bound of the bucket they fall in, so they are accurate to within a factor of two.
+ */
+class LatencyHistogram {
+    companion object {
+        private const val BUCKETS = 40
+    }
+
+    /**
+     * Latency statistics, all in microseconds.
+     */
+    data class Snapshot(val count: Long, val min: Long, val max: Long, val mean: Long, val p50: Long, val p90: Long, val p99: Long)
+
+    // Bucket 0 holds 0 µs, bucket b > 0 holds 2^(b-1) until 2^b - 1 µs.
+    private val buckets = LongArray(BUCKETS)
+    private var count = 0L
+    private var sum = 0L
+    private var min = Long.MAX_VALUE
+    private var max = 0L
+
+    @Synchronized
+    fun record(nanos: Long) {
+        val micros = maxOf(0, nanos / 1000)
+        buckets[minOf(BUCKETS - 1, 64 - java.lang.Long.numberOfLeadingZeros(micros))]++
+        count++
+        sum += micros
+        min = minOf(min, micros)
+        max = maxOf(max, micros)
+    }
+
+    @Synchronized
+    fun snapshot(): Snapshot = if (count == 0L) Snapshot(0, 0, 0, 0, 0, 0, 0) else {
+        Snapshot(count, min, max, sum / count, percentile(0.5), percentile(0.9), percentile(0.99))
+    }
+
+    @Synchronized
+    fun reset() {
+        buckets.fill(0)
+        count = 0
+        sum = 0
+        min = Long.MAX_VALUE
+        max = 0
+    }
+
+    private fun percentile(p: Double): Long {
+        val rank = Math.ceil(p * count).toLong()
+        var seen = 0L
+        buckets.forEachIndexed { bucket, n ->
+            seen += n
+            if (seen >= rank) {
+                return ((1L shl bucket) - 1).coerceIn(min, max)
+            }
+        }
+        return max
+    }
+}
@@ -4,8 +4,10 @@ import android.util.Base64
 import android.util.Log
 import com.yubico.yubikitold.application.ApduException
 import com.yubico.yubikitold.application.oath.CalculateResponse
+import com.yubico.yubikitold.application.oath.HashAlgorithm
 import com.yubico.yubikitold.application.oath.OathApplication
 import com.yubico.yubikitold.application.oath.OathType
+import com.yubico.yubikitold.transport.CommandApdu
 import com.yubico.yubikitold.transport.Iso7816Connection
 import com.yubico.yubikitold.transport.usb.UsbIso7816Connection
 import com.yubico.yubioath.exc.DuplicateKeyException
@@ -16,19 +18,22 @@ import java.security.MessageDigest
 import javax.crypto.Mac
 import javax.crypto.spec.SecretKeySpec
 
-class OathClient(connection: Iso7816Connection, val keyManager: KeyManager) {
+class OathClient(connection: Iso7816Connection, val keyManager: KeyManager, private val credentialCache: CredentialCache? = null, persistent: Boolean = connection is UsbIso7816Connection) {
     private val api: OathApplication = OathApplication(connection)
     val deviceInfo: DeviceInfo
 
+    // Names of all credentials on the device, as of the last CALCULATE ALL of this session.
+    private var nameIndex: MutableSet<String>? = null
+
     init {
-        api.select()
-        deviceInfo = DeviceInfo(getDeviceId(api.deviceId), connection is UsbIso7816Connection, api.version, api.isLocked)
+        Latency.measure(Latency.Stage.SELECT) { api.select() }
+        deviceInfo = DeviceInfo(getDeviceId(api.deviceId), persistent, api.version, api.isLocked)
         if (api.isLocked) {
             var missing = true
             keyManager.getKeys(deviceInfo.id).find {
                 missing = false
                 try {
-                    api.unlock(it)
+                    Latency.measure(Latency.Stage.VALIDATE) { api.unlock(it) }
                     true
                 } catch (e: ApduException) {
                     false
@@ -47,6 +52,10 @@ class OathClient(connection: Iso7816Connection, val keyManager: KeyManager) {
         return Base64.encodeToString(digest.sliceArray(0 until 16), Base64.NO_PADDING or Base64.NO_WRAP)
     }
 
+    private fun calculateAll(challenge: ByteArray): List<CalculateResponse> = Latency.measure(Latency.Stage.CALCULATE_ALL) {
+        api.calculateAll(challenge)
+    }
+
     private fun ensureOwnership(credential: Credential) {
         if (deviceInfo.id != credential.deviceId) {
             throw IllegalArgumentException("Credential parent ID doesn't match!")
@@ -90,8 +99,8 @@ class OathClient(connection: Iso7816Connection, val keyManager: KeyManager) {
         val challenge = ByteBuffer.allocate(8).putLong(timeStep).array()
 
         val value = when (credential.issuer) {
-            "Steam" -> formatSteam(api.calculate(credential.key, challenge, false))
-            else -> formatTruncated(api.calculate(credential.key, challenge, true))
+            "Steam" -> api.calculate(credential.key, challenge, false).formatSteam()
+            else -> api.calculate(credential.key, challenge, true).formatTruncated()
         }
 
         val (validFrom, validUntil) = when (credential.type) {
@@ -102,71 +111,181 @@ class OathClient(connection: Iso7816Connection, val keyManager: KeyManager) {
         return Code(value, validFrom, validUntil)
     }
 
-    fun refreshCodes(timestamp: Long, existing: Map<Credential, Code?>): Map<Credential, Code?> {
+    /**
+     * Calculates codes for all credentials. With [lookahead], codes for the following time step are
+     * calculated in the same session and attached to each TOTP code as [Code.next].
+     */
+    fun refreshCodes(timestamp: Long, existing: Map<Credential, Code?>, lookahead: Boolean = false): Map<Credential, Code?> {
         // Default to 30 second period
         val timeStep = (timestamp / 1000 / 30)
-        val challenge = ByteBuffer.allocate(8).putLong(timeStep).array()
 
-        return api.calculateAll(challenge).filter { !it.name.startsWith("_hidden:") }.map {
+        val responses = calculateAll(challenge(timeStep))
+        updateIndex(responses.map {
+            CredentialCache.Entry(it.name, if (it.responseType == CalculateResponse.TYPE_HOTP) OathType.HOTP else OathType.TOTP, null, it.responseType == CalculateResponse.TYPE_TOUCH)
+        })
+        val nextResponses = if (lookahead) calculateAll(challenge(timeStep + 1)).associateBy { it.name } else emptyMap()
+
+        val recalculate = mutableListOf<Credential>()
+        val codes = responses.filter { !it.name.startsWith("_hidden:") }.map {
             val credential = Credential(deviceInfo.id, it.name, if(it.responseType == CalculateResponse.TYPE_HOTP) OathType.HOTP else OathType.TOTP, it.responseType == CalculateResponse.TYPE_TOUCH)
             val existingCode = existing[credential]
             Log.d("yubikit", "Existing code: $credential: $existingCode")
-            val code: Code? = if (it.response.size > 1) {
+            val code: Code? = if (it.responseLength > 1) {
                 if (credential.period != 30 || credential.issuer == "Steam") {
                     //Recalculate needed for for periods != 30 or Steam credentials
-                    if (existingCode != null && existingCode.validUntil > timestamp) existingCode else calculate(credential, timestamp)
+                    val current = existingCode?.advance(timestamp)
+                    if (current != null && current.validUntil > timestamp && (!lookahead || current.next != null)) current else {
+                        recalculate.add(credential)
+                        null
+                    }
                 } else {
-                    Code(formatTruncated(it), timeStep * 30 * 1000, (timeStep + 1) * 30 * 1000)
+                    val next = nextResponses[it.name]?.takeIf { next -> next.responseLength > 1 }?.let { next ->
+                        totpCode(next.formatTruncated(), timeStep + 1, 30, null)
+                    }
+                    totpCode(it.formatTruncated(), timeStep, 30, next)
                 }
             } else existingCode
 
             (credential to code)
-        }.toMap()
+        }.toMap(LinkedHashMap())
+
+        codes.putAll(calculateGrouped(recalculate, timestamp, lookahead))
+        return codes
+    }
+
+    /**
+     * Calculates codes for several TOTP credentials, using one CALCULATE ALL per distinct period
+     * and a single batch of CALCULATE commands per period for Steam credentials. With [lookahead],
+     * the same is done for the following time step.
+     */
+    private fun calculateGrouped(credentials: List<Credential>, timestamp: Long, lookahead: Boolean): Map<Credential, Code> {
+        val codes = mutableMapOf<Credential, Code>()
+        val (steam, other) = credentials.partition { it.issuer == "Steam" }
+
+        other.groupBy { it.period }.forEach { (period, group) ->
+            val timeStep = (timestamp / 1000 / period)
+            val byName = group.associateBy { it.key }
+            val next = if (lookahead) {
+                calculateAll(challenge(timeStep + 1)).filter { it.name in byName }.associate {
+                    it.name to totpCode(it.formatTruncated(), timeStep + 1, period, null)
+                }
+            } else emptyMap()
+            calculateAll(challenge(timeStep)).forEach { response ->
+                byName[response.name]?.let {
+                    codes[it] = totpCode(response.formatTruncated(), timeStep, period, next[response.name])
+                }
+            }
+        }
+
+        steam.groupBy { it.period }.forEach { (period, group) ->
+            val timeStep = (timestamp / 1000 / period)
+            val names = group.map { it.key }
+            val next = if (lookahead) api.calculate(names, challenge(timeStep + 1), false) else null
+            api.calculate(names, challenge(timeStep), false).forEachIndexed { i, response ->
+                codes[group[i]] = totpCode(response.formatSteam(), timeStep, period, next?.let {
+                    totpCode(it[i].formatSteam(), timeStep + 1, period, null)
+                })
+            }
+        }
+
+        return codes
+    }
+
+    private fun challenge(timeStep: Long): ByteArray = ByteBuffer.allocate(8).putLong(timeStep).array()
+
+    private fun totpCode(value: String, timeStep: Long, period: Int, next: Code?): Code = Code(value, timeStep * 1000 * period, (timeStep + 1) * 1000 * period, next)
+
+    private fun updateIndex(entries: List<CredentialCache.Entry>) {
+        nameIndex = entries.mapTo(mutableSetOf()) { it.key }
+        credentialCache?.update(deviceInfo.id, entries)
+    }
+
+    /**
+     * Names of all credentials on the device, from the CALCULATE ALL of this session, or else from
+     * LIST. The credential cache is never used for this, as it may be stale and a PUT silently
+     * overwrites a credential of the same name.
+     */
+    private fun getNameIndex(): MutableSet<String> {
+        nameIndex?.let { return it }
+        val credentials = api.listCredentials()
+        credentialCache?.let { cache ->
+            if (!cache.hasDevice(deviceInfo.id)) {
+                cache.update(deviceInfo.id, credentials.map { CredentialCache.Entry(it.name, it.oathType, it.hashAlgorithm, false) })
+            }
+        }
+        return credentials.mapTo(mutableSetOf()) { it.name }
     }
 
     fun delete(credential: Credential) {
         ensureOwnership(credential)
         api.deleteCredential(credential.key)
+        nameIndex?.remove(credential.key)
+        credentialCache?.remove(deviceInfo.id, credential.key)
     }
 
     fun addCredential(data: CredentialData): Credential {
         with(data) {
-            if (issuer != null) {
-                name = "$issuer:$name"
-            }
-            if (oathType == OathType.TOTP && period != 30) {
-                name = "$period/$name"
-            }
-            if (name.length > 64) {
+            if (key.length > 64) {
                 throw KeyTooLongException()
             }
-            if (api.listCredentials().any { it.name == name }) {
+            val names = getNameIndex()
+            if (key in names) {
                 throw DuplicateKeyException()
             }
-            api.putCredential(name, secret, oathType, algorithm, digits, counter, touch)
-            return Credential(deviceInfo.id, name, oathType, touch)
+            api.putCredential(key, secret, oathType, algorithm, digits, counter, touch)
+            names.add(key)
+            credentialCache?.put(deviceInfo.id, CredentialCache.Entry(key, oathType, algorithm, touch))
+            return Credential(deviceInfo.id, key, oathType, touch)
         }
     }
 
-    companion object {
-        private const val STEAM_CHARS = "23456789BCDFGHJKMNPQRTVWXY"
+    class ImportResult(val data: CredentialData, val credential: Credential?, val error: Exception?)
+
+    /**
+     * Stores several credentials, using a single duplicate check and one batch of PUT commands.
+     * Failures are reported per credential instead of being thrown.
+     */
+    fun importCredentials(items: List<CredentialData>): List<ImportResult> {
+        val names = getNameIndex()
+        val results = arrayOfNulls<ImportResult>(items.size)
+        val pending = mutableListOf<Int>()
+        val commands = mutableListOf<CommandApdu>()
 
-        private fun formatTruncated(data: CalculateResponse): String {
-            return with(data) {
-                ByteBuffer.wrap(response).int.toString().takeLast(digits).padStart(digits, '0')
+        items.forEachIndexed { i, data ->
+            try {
+                data.validate()
+                if (data.algorithm == HashAlgorithm.SHA512 && api.version.isLessThan(4, 3, 1)) {
+                    throw IllegalArgumentException("SHA-512 requires YubiKey 4.3.1 or later")
+                }
+                if (data.key in names) {
+                    throw DuplicateKeyException()
+                }
+                commands.add(api.createPutCommand(data.key, data.secret, data.oathType, data.algorithm, data.digits, data.counter, data.touch))
+                names.add(data.key)
+                pending.add(i)
+            } catch (e: Exception) {
+                results[i] = ImportResult(data, null, e)
             }
         }
 
-        private fun formatSteam(data: CalculateResponse): String {
-            val response = data.response
-            val offs = 0xf and response[response.size - 1].toInt()
-            var code = 0x7fffffff and ByteBuffer.wrap(response.copyOfRange(offs, offs + 4)).int
-            return StringBuilder().apply {
-                for (i in 0..4) {
-                    append(STEAM_CHARS[code % STEAM_CHARS.length])
-                    code /= STEAM_CHARS.length
+        if (commands.isNotEmpty()) {
+            val sws = api.putCredentials(commands)
+            pending.forEachIndexed { j, i ->
+                val data = items[i]
+                results[i] = if (sws[j] == SW_OK) {
+                    credentialCache?.put(deviceInfo.id, CredentialCache.Entry(data.key, data.oathType, data.algorithm, data.touch))
+                    ImportResult(data, Credential(deviceInfo.id, data.key, data.oathType, data.touch), null)
+                } else {
+                    names.remove(data.key)
+                    ImportResult(data, null, ApduException(ByteArray(0), sws[j]))
                 }
-            }.toString()
+            }
         }
+
+        return results.map { it!! }
+    }
+
+    companion object {
+        private const val SW_OK = 0x9000.toShort()
     }
-}
\ No newline at end of file
+}
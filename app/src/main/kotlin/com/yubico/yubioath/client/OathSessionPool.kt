@@ -0,0 +1,163 @@
+package com.yubico.yubioath.client
+
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import android.util.Log
+import com.yubico.yubikitold.application.ApduException
+import com.yubico.yubikitold.application.oath.OathApplication
+import com.yubico.yubikitold.transport.Iso7816Connection
+import com.yubico.yubikitold.transport.usb.UsbTransport
+import com.yubico.yubioath.exc.DuplicateKeyException
+import com.yubico.yubioath.exc.KeyTooLongException
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import java.io.IOException
+import java.util.concurrent.Executors
+
+/**
+ * Keeps OATH sessions to USB YubiKeys open between requests, so that the applet stays selected and
+ * unlocked. A session is closed once it has been idle for [idleTimeout] ms, or when invalidated.
+ *
+ * Each device has its own single threaded worker that all I/O with it runs on, so several
+ * YubiKeys can be used at once without waiting for each other.
+ */
+class OathSessionPool(private val idleTimeout: Long = DEFAULT_IDLE_TIMEOUT) {
+    companion object {
+        const val DEFAULT_IDLE_TIMEOUT = 90000L
+    }
+
+    private class Session(val connection: Iso7816Connection, val client: OathClient) {
+        var lastUsed = SystemClock.elapsedRealtime()
+
+        fun close() {
+            try {
+                connection.close()
+            } catch (e: IOException) {
+                Log.d("yubioath", "Error closing session", e)
+            }
+        }
+    }
+
+    private class Device(name: String) {
+        val mutex = Mutex()
+        val executor = Executors.newSingleThreadExecutor { Thread(it, "YubiKey $name") }
+        val worker = executor.asCoroutineDispatcher()
+        var session: Session? = null
+    }
+
+    private val handler = Handler(Looper.getMainLooper())
+    private val devices = mutableMapOf<String, Device>()
+
+    private val closeIdle = object : Runnable {
+        override fun run() {
+            val now = SystemClock.elapsedRealtime()
+            var next: Long? = null
+            synchronized(devices) { devices.values.toList() }.forEach { device ->
+                if (!device.mutex.tryLock()) return@forEach  // In use, rescheduled once released.
+                try {
+                    device.session?.let { session ->
+                        if (session.lastUsed + idleTimeout <= now) {
+                            // Closing does I/O, so it's done on the worker, queued before any new session.
+                            device.executor.execute { session.close() }
+                            device.session = null
+                        } else {
+                            next = minOf(next ?: Long.MAX_VALUE, session.lastUsed + idleTimeout - now)
+                        }
+                    }
+                } finally {
+                    device.mutex.unlock()
+                }
+            }
+            next?.let { handler.postDelayed(this, it) }
+        }
+    }
+
+    private fun getDevice(key: String): Device = synchronized(devices) {
+        devices.getOrPut(key) { Device(key) }
+    }
+
+    /**
+     * Runs [block] with the pooled client for the device, on the worker of the device. If there is
+     * no client, a connection is made with [connect] and a client created on it with [open].
+     *
+     * If a pooled session has been lost, failing with an IOException or with the applet no longer
+     * selected and unlocked, it is discarded and [block] is retried once with a new session. Other
+     * errors from the YubiKey are real rejections and are thrown, so that nothing is done twice.
+     * Only errors thrown by [block] itself are retried: requests queued by BaseViewModel catch
+     * their own errors, so a request failing on a lost session fails, and the refresh which
+     * follows it in [block] reconnects.
+     */
+    suspend fun <T> use(transport: UsbTransport, connect: (UsbTransport) -> Iso7816Connection, open: (Iso7816Connection) -> OathClient, block: suspend (OathClient) -> T): T {
+        val device = getDevice(transport.usbDevice.deviceName)
+        return withContext(device.worker) {
+            device.mutex.withLock {
+                device.session?.let { session ->
+                    device.session = null
+                    try {
+                        return@withLock block(session.client).also { keep(device, session) }
+                    } catch (e: Exception) {
+                        session.close()
+                        if (!isSessionLost(e)) throw e
+                        Log.d("yubioath", "Pooled session failed, reconnecting", e)
+                    }
+                }
+
+                val connection = connect(transport)
+                try {
+                    val session = Session(connection, open(connection))
+                    block(session.client).also { keep(device, session) }
+                } catch (e: Exception) {
+                    connection.close()
+                    throw e
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the session of a device which has been removed, and stops its worker.
+     *
+     * @return the id of the OATH device the session was for, if any.
+     */
+    suspend fun invalidate(transport: UsbTransport): String? {
+        val device = synchronized(devices) { devices.remove(transport.usbDevice.deviceName) } ?: return null
+        return device.mutex.withLock {
+            val deviceId = device.session?.client?.deviceInfo?.id
+            device.session?.close()
+            device.session = null
+            device.worker.close()
+            deviceId
+        }
+    }
+
+    /**
+     * Closes all sessions, for instance when all devices have been removed.
+     */
+    suspend fun invalidate() {
+        handler.removeCallbacks(closeIdle)
+        synchronized(devices) { devices.values.toList().also { devices.clear() } }.forEach { device ->
+            device.mutex.withLock {
+                device.session?.close()
+                device.session = null
+                device.worker.close()
+            }
+        }
+    }
+
+    private fun isSessionLost(e: Exception): Boolean = when (e) {
+        is DuplicateKeyException, is KeyTooLongException -> false
+        is IOException -> true
+        is ApduException -> e.sw == OathApplication.SW_AUTH_REQUIRED
+        else -> false
+    }
+
+    private fun keep(device: Device, session: Session) {
+        session.lastUsed = SystemClock.elapsedRealtime()
+        device.session = session
+        handler.removeCallbacks(closeIdle)
+        handler.postDelayed(closeIdle, idleTimeout)
+    }
+}
@@ -14,14 +14,22 @@ import androidx.lifecycle.Observer
 import androidx.lifecycle.ViewModelProviders
 import androidx.preference.PreferenceManager
 import com.yubico.yubikitold.YubiKitManager
+import com.yubico.yubikitold.application.AbstractApplication
 import com.yubico.yubikitold.application.ApduException
 import com.yubico.yubikitold.application.oath.OathApplication
+import com.yubico.yubikitold.transport.Iso7816Connection
 import com.yubico.yubikitold.transport.OnYubiKeyListener
+import com.yubico.yubikitold.transport.RecordingConnection
 import com.yubico.yubikitold.transport.YubiKeyTransport
 import com.yubico.yubikitold.transport.nfc.NordpolNfcDispatcher
+import com.yubico.yubikitold.transport.usb.UsbTransport
 import com.yubico.yubioath.R
+import com.yubico.yubioath.client.ApduLog
+import com.yubico.yubioath.client.CredentialCache
 import com.yubico.yubioath.client.KeyManager
+import com.yubico.yubioath.client.Latency
 import com.yubico.yubioath.client.OathClient
+import com.yubico.yubioath.client.OathSessionPool
 import com.yubico.yubioath.exc.PasswordRequiredException
 import com.yubico.yubioath.keystore.ClearingMemProvider
 import com.yubico.yubioath.keystore.KeyStoreProvider
@@ -29,19 +37,30 @@ import com.yubico.yubioath.keystore.SharedPrefProvider
 import kotlinx.coroutines.*
 import kotlinx.coroutines.android.asCoroutineDispatcher
 import org.jetbrains.anko.toast
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
 import kotlin.coroutines.CoroutineContext
 
 abstract class BaseActivity<T : BaseViewModel>(private var modelClass: Class<T>) : AppCompatActivity(), CoroutineScope, OnYubiKeyListener {
     companion object {
         private const val SP_STORED_AUTH_KEYS = "com.yubico.yubioath.SP_STORED_AUTH_KEYS"
+        private const val SP_CREDENTIAL_CACHE = "com.yubico.yubioath.SP_CREDENTIAL_CACHE"
+        const val PREF_RECORD_SESSIONS = "recordSessions"
+        const val PREF_ASYNC_USB = "asyncUsb"
 
         private val MEM_STORE = ClearingMemProvider()
+        private val SESSION_POOL = OathSessionPool()
 
         private fun getThemeId(name: String) = when (name) {
             "Dark" -> R.style.AppThemeDark
             "AMOLED" -> R.style.AppThemeAmoled
             else -> R.style.AppThemeLight
         }
+
+        init {
+            AbstractApplication.setTracer(ApduLog)
+        }
     }
 
     protected lateinit var viewModel: T
@@ -66,6 +85,10 @@ abstract class BaseActivity<T : BaseViewModel>(private var modelClass: Class<T>)
         )
     }
 
+    protected val credentialCache: CredentialCache by lazy {
+        CredentialCache(getSharedPreferences(SP_CREDENTIAL_CACHE, Context.MODE_PRIVATE))
+    }
+
     private var themeId = 0
 
     override fun onCreate(savedInstanceState: Bundle?) {
@@ -102,6 +125,7 @@ abstract class BaseActivity<T : BaseViewModel>(private var modelClass: Class<T>)
         if (intent.action == NfcAdapter.ACTION_NDEF_DISCOVERED) {
             nfcDispatcher.interceptIntent(intent)
         }
+        yubiKitManager.usbDeviceManager.handleIntent(intent)
 
         viewModel.needsDevice.observe(this, Observer {
             if (it) {
@@ -121,13 +145,55 @@ abstract class BaseActivity<T : BaseViewModel>(private var modelClass: Class<T>)
     }
 
     override fun onYubiKey(transport: YubiKeyTransport?) {
-        transport?.let {
+        val received = System.nanoTime()
+        transport?.let { Latency.onDiscovered(it.discoveredAt) }
+        launch(exec) {
+            Latency.record(Latency.Stage.HANDLER, System.nanoTime() - received)
+            if (transport != null) {
+                useTransport(transport)
+            } else {
+                SESSION_POOL.invalidate()
+            }
+        }
+    }
+
+    override fun onYubiKeyRemoved(transport: YubiKeyTransport) {
+        if (transport is UsbTransport) {
             launch(exec) {
-                useTransport(it)
+                SESSION_POOL.invalidate(transport)?.let { viewModel.onDeviceRemoved(it) }
             }
         }
     }
 
+    /**
+     * Connects to the transport, over queued USB requests if enabled. If enabled, the session is
+     * recorded to a file which can be served back with ReplayConnection, for reproducing slow taps.
+     * Recordings hold responses such as credential names, codes and OTPs, so they are kept in
+     * private storage.
+     */
+    private fun connect(transport: YubiKeyTransport): Iso7816Connection {
+        val connection = Latency.measure(Latency.Stage.CONNECT) {
+            if (transport is UsbTransport && prefs.getBoolean(PREF_ASYNC_USB, false)) transport.connectAsync() else transport.connect()
+        }
+        if (!prefs.getBoolean(PREF_RECORD_SESSIONS, false)) {
+            return connection
+        }
+        val dir = File(filesDir, "recordings").apply { mkdirs() }
+        val type = if (transport is UsbTransport) "usb" else "nfc"
+        return try {
+            RecordingConnection(connection, FileOutputStream(File(dir, "$type-${System.currentTimeMillis()}.apdu")))
+        } catch (e: IOException) {
+            Log.e("yubioath", "Unable to record session", e)
+            connection
+        }
+    }
+
+    /**
+     * Called with a new NFC connection before the OATH session is opened on it, for reading other
+     * applets of the YubiKey during the same tap.
+     */
+    protected open fun onConnected(transport: YubiKeyTransport, connection: Iso7816Connection) = Unit
+
     open suspend fun useTransport(transport: YubiKeyTransport) {
         if(!transport.hasIso7816()) {
             Log.d("yubioath", "Device does not support ISO7816")
@@ -140,8 +206,15 @@ abstract class BaseActivity<T : BaseViewModel>(private var modelClass: Class<T>)
         }
 
         try {
-            transport.connect().use {
-                viewModel.onClient(OathClient(it, keyManager))
+            if (transport is UsbTransport) {
+                SESSION_POOL.use(transport, ::connect, { OathClient(it, keyManager, credentialCache, true) }) {
+                    viewModel.onClient(it)
+                }
+            } else {
+                connect(transport).use {
+                    onConnected(transport, it)
+                    viewModel.onClient(OathClient(it, keyManager, credentialCache))
+                }
             }
         } catch (e: PasswordRequiredException) {
             coroutineScope {
@@ -149,10 +222,13 @@ abstract class BaseActivity<T : BaseViewModel>(private var modelClass: Class<T>)
                     supportFragmentManager.apply {
                         if (findFragmentByTag("dialog_require_password") == null) {
                             RequirePasswordDialog.newInstance(e.isMissing) { password, remember ->
-                                keyManager.clearKeys(e.deviceId)
-                                keyManager.addKey(e.deviceId, KeyManager.calculateSecret(password, e.salt, false), remember)
-                                keyManager.addKey(e.deviceId, KeyManager.calculateSecret(password, e.salt, true), remember)
-                                yubiKitManager.triggerOnYubiKey()
+                                this@BaseActivity.launch {
+                                    val (secret, legacySecret) = KeyManager.calculateSecrets(password, e.salt)
+                                    keyManager.clearKeys(e.deviceId)
+                                    keyManager.addKey(e.deviceId, secret, remember)
+                                    keyManager.addKey(e.deviceId, legacySecret, remember)
+                                    yubiKitManager.triggerOnYubiKey()
+                                }
                             }.show(beginTransaction(), "dialog_require_password")
                         }
                     }
@@ -160,6 +236,7 @@ abstract class BaseActivity<T : BaseViewModel>(private var modelClass: Class<T>)
             }
         } catch (e: Exception) {
             Log.e("yubioath", "Error using OathClient", e)
+            ApduLog.dump("yubioath")
             val message = if (e is ApduException) {
                 when (e.sw) {
                     OathApplication.SW_FILE_NOT_FOUND -> R.string.no_applet
@@ -184,6 +261,7 @@ abstract class BaseActivity<T : BaseViewModel>(private var modelClass: Class<T>)
 
     override fun onNewIntent(intent: Intent) {
         nfcDispatcher.interceptIntent(intent)
+        yubiKitManager.usbDeviceManager.handleIntent(intent)
     }
 
     public override fun onPause() {
@@ -9,12 +9,16 @@ import com.yubico.yubioath.client.DeviceInfo
 import com.yubico.yubioath.client.OathClient
 import kotlinx.coroutines.*
 import kotlinx.coroutines.channels.Channel
+import java.util.concurrent.ConcurrentHashMap
 import kotlin.coroutines.CoroutineContext
 
 abstract class BaseViewModel : ViewModel(), CoroutineScope {
     companion object {
         private val DUMMY_INFO = DeviceInfo("", false, Version(0, 0, 0), false)
         private val globalDeviceInfo = MutableLiveData<DeviceInfo>().apply { postValue(DUMMY_INFO) }
+
+        // Devices which stay connected between requests, by id.
+        private val attachedDevices = ConcurrentHashMap<String, DeviceInfo>()
     }
 
     private val job = Job()
@@ -24,7 +28,8 @@ abstract class BaseViewModel : ViewModel(), CoroutineScope {
 
     data class ClientRequest(val deviceId: String?, val func: suspend (OathClient) -> Unit)
 
-    private val clientRequests = Channel<ClientRequest>(Channel.UNLIMITED)
+    // Requests stay queued until a client for their device is available, which may not be the next one.
+    private val clientRequests = mutableListOf<ClientRequest>()
 
     internal var nfcWarned = false
 
@@ -34,16 +39,18 @@ abstract class BaseViewModel : ViewModel(), CoroutineScope {
     val needsDevice: LiveData<Boolean> = mutableNeedsDevice
 
     override fun onCleared() {
-        clientRequests.cancel()
+        synchronized(clientRequests) { clientRequests.clear() }
         job.cancel()
     }
 
     fun <T> requestClient(id: String? = null, func: (api: OathClient) -> T): Deferred<Result<T>> = async(Dispatchers.Main) {
         Log.d("yubioath", "Requesting API...")
         val responseChannel = Channel<Result<T>>()
-        clientRequests.send(ClientRequest(id) {
-            responseChannel.send(runCatching { func(it) })
-        })
+        synchronized(clientRequests) {
+            clientRequests.add(ClientRequest(id) {
+                responseChannel.send(runCatching { func(it) })
+            })
+        }
         mutableNeedsDevice.value = true
 
         responseChannel.receive()
@@ -53,21 +60,40 @@ abstract class BaseViewModel : ViewModel(), CoroutineScope {
         globalDeviceInfo.postValue(DUMMY_INFO)
     }
 
+    /**
+     * Whether a device stays connected between requests, such as a YubiKey plugged in over USB.
+     */
+    fun isAttached(deviceId: String): Boolean = attachedDevices.containsKey(deviceId)
+
+    /**
+     * Called when a device which stays connected has been removed.
+     */
+    open fun onDeviceRemoved(deviceId: String) {
+        attachedDevices.remove(deviceId)
+        if (globalDeviceInfo.value?.id == deviceId) {
+            globalDeviceInfo.postValue(attachedDevices.values.firstOrNull() ?: DUMMY_INFO)
+        }
+    }
+
+    private fun takeRequest(deviceId: String): ClientRequest? = synchronized(clientRequests) {
+        clientRequests.find { it.deviceId == null || it.deviceId == deviceId }?.also { clientRequests.remove(it) }
+    }
+
     protected open suspend fun useClient(client: OathClient) = Unit
     suspend fun onClient(client: OathClient) {
         mutableNeedsDevice.postValue(false)
         try {
             globalDeviceInfo.postValue(client.deviceInfo)
+            if (client.deviceInfo.persistent) {
+                attachedDevices[client.deviceInfo.id] = client.deviceInfo
+            }
             Log.d("yubioath", "Got API, checking requests...")
             while (true) {
-                clientRequests.poll()?.apply {
-                    if (deviceId == null || deviceId == client.deviceInfo.id) {
-                        func(client)
-                    }
-                } ?: break
+                takeRequest(client.deviceInfo.id)?.func?.invoke(client) ?: break
             }
             useClient(client)
         } catch (e: Exception) {
+            attachedDevices.remove(client.deviceInfo.id)
             globalDeviceInfo.postValue(DUMMY_INFO)
             throw e
         }
@@ -0,0 +1,68 @@
+package com.yubico.yubioath.ui.diagnostics
+
+import android.content.Intent
+import android.os.Bundle
+import android.view.Menu
+import android.view.MenuItem
+import android.widget.TextView
+import androidx.appcompat.app.AppCompatActivity
+import androidx.preference.PreferenceManager
+import com.yubico.yubioath.R
+import com.yubico.yubioath.client.Latency
+import com.yubico.yubioath.ui.BaseActivity
+
+/**
+ * Hidden screen showing the latency of each stage between tapping a YubiKey and seeing its codes.
+ * Opened by tapping "About" in the settings repeatedly.
+ */
+class DiagnosticsActivity : AppCompatActivity() {
+    private val prefs by lazy { PreferenceManager.getDefaultSharedPreferences(this) }
+
+    override fun onCreate(savedInstanceState: Bundle?) {
+        super.onCreate(savedInstanceState)
+        setContentView(R.layout.activity_diagnostics)
+
+        supportActionBar?.setDisplayHomeAsUpEnabled(true)
+    }
+
+    override fun onResume() {
+        super.onResume()
+        updateReport()
+    }
+
+    private fun updateReport() {
+        findViewById<TextView>(R.id.diagnostics_report).text = Latency.report()
+    }
+
+    override fun onCreateOptionsMenu(menu: Menu): Boolean {
+        menuInflater.inflate(R.menu.menu_diagnostics, menu)
+        menu.findItem(R.id.menu_diagnostics_record).isChecked = prefs.getBoolean(BaseActivity.PREF_RECORD_SESSIONS, false)
+        menu.findItem(R.id.menu_diagnostics_async_usb).isChecked = prefs.getBoolean(BaseActivity.PREF_ASYNC_USB, false)
+        return true
+    }
+
+    override fun onOptionsItemSelected(item: MenuItem): Boolean {
+        when (item.itemId) {
+            android.R.id.home -> finish()
+            R.id.menu_diagnostics_refresh -> updateReport()
+            R.id.menu_diagnostics_reset -> {
+                Latency.reset()
+                updateReport()
+            }
+            R.id.menu_diagnostics_share -> startActivity(Intent.createChooser(Intent(Intent.ACTION_SEND).apply {
+                type = "text/plain"
+                putExtra(Intent.EXTRA_SUBJECT, getString(R.string.diagnostics))
+                putExtra(Intent.EXTRA_TEXT, Latency.report())
+            }, getString(R.string.diagnostics_share)))
+            R.id.menu_diagnostics_record -> {
+                item.isChecked = !item.isChecked
+                prefs.edit().putBoolean(BaseActivity.PREF_RECORD_SESSIONS, item.isChecked).apply()
+            }
+            R.id.menu_diagnostics_async_usb -> {
+                item.isChecked = !item.isChecked
+                prefs.edit().putBoolean(BaseActivity.PREF_ASYNC_USB, item.isChecked).apply()
+            }
+        }
+        return true
+    }
+}
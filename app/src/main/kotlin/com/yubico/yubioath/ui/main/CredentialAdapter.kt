@@ -14,6 +14,7 @@ import com.yubico.yubikitold.application.oath.OathType
 import com.yubico.yubioath.R
 import com.yubico.yubioath.client.Code
 import com.yubico.yubioath.client.Credential
+import com.yubico.yubioath.client.Latency
 import kotlinx.android.synthetic.main.view_credential.view.*
 import kotlinx.coroutines.*
 import org.jetbrains.anko.imageBitmap
@@ -102,6 +103,7 @@ class CredentialAdapter(private val context: Context, private val actionHandler:
     fun getPosition(credential: Credential): Int = creds.keys.indexOf(credential)
 
     override fun getView(position: Int, convertView: View?, parent: ViewGroup?): View? {
+        Latency.onBound()
         return (convertView ?: inflater.inflate(R.layout.view_credential, parent, false).apply {
             (this as ViewGroup).descendantFocusability = ViewGroup.FOCUS_BLOCK_DESCENDANTS
             tag = CodeAdapterViewHolder(this)
@@ -31,6 +31,7 @@ import com.yubico.yubioath.R
 import com.yubico.yubioath.client.Code
 import com.yubico.yubioath.client.Credential
 import com.yubico.yubioath.client.CredentialData
+import com.yubico.yubioath.client.Latency
 import com.yubico.yubioath.isGooglePlayAvailable
 import com.yubico.yubioath.startQrCodeAcitivty
 import com.yubico.yubioath.ui.add.AddCredentialActivity
@@ -118,6 +119,7 @@ class CredentialFragment : ListFragment(), CoroutineScope {
         listAdapter = CredentialAdapter(context!!, actions, viewModel.creds.value.orEmpty())
 
         viewModel.filteredCreds.observe(activity!!, Observer { filteredCreds ->
+            Latency.onDelivered()
             view?.findViewById<TextView>(android.R.id.empty)?.setText(when {
                 viewModel.deviceInfo.value!!.persistent -> R.string.no_credentials
                 !viewModel.searchFilter.value.isNullOrEmpty() && !viewModel.creds.value.isNullOrEmpty() -> R.string.no_match
@@ -3,6 +3,7 @@ package com.yubico.yubioath.ui.main
 import android.app.Activity
 import android.content.Context
 import android.content.Intent
+import android.net.Uri
 import android.nfc.NdefMessage
 import android.nfc.NfcAdapter
 import android.os.Bundle
@@ -10,6 +11,7 @@ import android.util.Log
 import android.view.Menu
 import android.view.MenuItem
 import androidx.appcompat.widget.SearchView
+import com.yubico.yubikitold.transport.Iso7816Connection
 import com.yubico.yubikitold.transport.YubiKeyTransport
 import com.yubico.yubikitold.transport.nfc.NfcTransport
 import com.yubico.yubioath.R
@@ -19,11 +21,13 @@ import com.yubico.yubioath.ui.BaseActivity
 import com.yubico.yubioath.ui.password.PasswordActivity
 import com.yubico.yubioath.ui.settings.SettingsActivity
 import org.jetbrains.anko.toast
+import kotlinx.coroutines.launch
 import java.io.IOException
 
 class MainActivity : BaseActivity<OathViewModel>(OathViewModel::class.java) {
     companion object {
         private const val REQUEST_PASSWORD = 2
+        private const val REQUEST_IMPORT = 3
         private const val MODHEX = "cbdefghijklnrtuv"
         val CODE_PATTERN = """(\d{6,8})|(!?[1-8$MODHEX${MODHEX.toUpperCase()}]{4}[$MODHEX]{28,60})""".toRegex()
     }
@@ -49,6 +53,8 @@ class MainActivity : BaseActivity<OathViewModel>(OathViewModel::class.java) {
         // Clear storage from older version of app
         getSharedPreferences("NEO_STORE", Context.MODE_PRIVATE).edit().clear().apply()
 
+        viewModel.showCachedCredentials(credentialCache)
+
         if (prefs.getBoolean("readNdefData", false) && intent.action == NfcAdapter.ACTION_NDEF_DISCOVERED) {
             (intent.getParcelableArrayExtra(NfcAdapter.EXTRA_NDEF_MESSAGES)[0] as NdefMessage).toByteArray()?.let { ndefData ->
                 NfcTransport.parseNdefOtp(ndefData)?.let {
@@ -83,6 +89,7 @@ class MainActivity : BaseActivity<OathViewModel>(OathViewModel::class.java) {
     override fun onOptionsItemSelected(item: MenuItem): Boolean {
         when (item.itemId) {
             R.id.menu_main_password -> startActivityForResult(Intent(this, PasswordActivity::class.java), REQUEST_PASSWORD)
+            R.id.menu_main_import -> startActivityForResult(Intent(Intent.ACTION_OPEN_DOCUMENT).addCategory(Intent.CATEGORY_OPENABLE).setType("text/*"), REQUEST_IMPORT)
             R.id.menu_main_settings -> startActivity(Intent(this, SettingsActivity::class.java))
         }
 
@@ -94,10 +101,32 @@ class MainActivity : BaseActivity<OathViewModel>(OathViewModel::class.java) {
             REQUEST_PASSWORD -> if (resultCode == Activity.RESULT_OK) {
                 toast(R.string.password_updated)
             }
+            REQUEST_IMPORT -> if (resultCode == Activity.RESULT_OK) {
+                data?.data?.let { importCredentials(it) }
+            }
         }
         super.onActivityResult(requestCode, resultCode, data)
     }
 
+    private fun importCredentials(uri: Uri) {
+        val lines = try {
+            contentResolver.openInputStream(uri)?.bufferedReader()?.use { it.readLines() }.orEmpty()
+        } catch (e: IOException) {
+            Log.e("yubioath", "Error reading import file", e)
+            toast(R.string.import_failed)
+            return
+        }.map { it.trim() }.filter { it.isNotEmpty() && !it.startsWith("#") }
+
+        launch {
+            viewModel.importCredentials(lines).await().onSuccess {
+                toast(getString(R.string.import_result, it.imported, it.total, it.millis))
+            }.onFailure {
+                Log.e("yubioath", "Error importing credentials", it)
+                toast(R.string.import_failed)
+            }
+        }
+    }
+
     override fun onYubiKey(transport: YubiKeyTransport?) {
         if(transport == null) {
             viewModel.clearDevice()
@@ -106,17 +135,16 @@ class MainActivity : BaseActivity<OathViewModel>(OathViewModel::class.java) {
         super.onYubiKey(transport)
     }
 
-    override suspend fun useTransport(transport: YubiKeyTransport) {
+    override fun onConnected(transport: YubiKeyTransport, connection: Iso7816Connection) {
         if (prefs.getBoolean("readNdefData", false) && transport is NfcTransport) {
             try {
-                transport.ndefBytes?.let {
+                transport.getNdefBytes(connection)?.let {
                     viewModel.ndefCode = parseNdefData(it)
                 }
             } catch (e: IOException) {
                 Log.e("yubioath", "Error reading NDEF tag.", e)
             }
         }
-        super.useTransport(transport)
     }
 
     override fun onPause() {
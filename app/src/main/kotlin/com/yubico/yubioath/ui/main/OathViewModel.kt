@@ -1,5 +1,7 @@
 package com.yubico.yubioath.ui.main
 
+import android.net.Uri
+import android.os.SystemClock
 import android.util.Log
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.MediatorLiveData
@@ -7,8 +9,12 @@ import androidx.lifecycle.MutableLiveData
 import com.yubico.yubikitold.application.oath.OathType
 import com.yubico.yubioath.client.Code
 import com.yubico.yubioath.client.Credential
+import com.yubico.yubioath.client.CredentialCache
+import com.yubico.yubioath.client.CredentialData
+import com.yubico.yubioath.client.Latency
 import com.yubico.yubioath.client.OathClient
 import com.yubico.yubioath.ui.BaseViewModel
+import kotlinx.coroutines.Deferred
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.delay
@@ -42,33 +48,89 @@ class OathViewModel : BaseViewModel() {
     var ndefCode: Code? = null
 
     fun calculate(credential: Credential) = requestClient(credential.deviceId) {
-        val code = it.calculate(credential, currentTime(true))
+        val code = it.calculate(credential, currentTime())
         Log.d("yubioath", "Calculated code: $credential: $code")
-        credsMap[credential] = code
-        _creds.postValue(credsMap)
+        synchronized(this) {
+            credsMap[credential] = code
+            _creds.postValue(credsMap.toMap())
+        }
         scheduleRefresh()
     }
 
     fun delete(credential: Credential) = requestClient(credential.deviceId) {
         it.delete(credential)
-        credsMap - credential
-        _creds.postValue(credsMap)
+        synchronized(this) {
+            credsMap.remove(credential)
+            _creds.postValue(credsMap.toMap())
+        }
         Log.d("yubioath", "Deleted credential: $credential")
         scheduleRefresh()
     }
 
+    data class ImportSummary(val total: Int, val imported: Int, val millis: Long)
+
+    /**
+     * Imports credentials from otpauth:// URIs. The URIs are parsed and validated first, and all
+     * valid credentials are then stored in a single device session.
+     */
+    fun importCredentials(uris: List<String>): Deferred<Result<ImportSummary>> {
+        val items = uris.mapNotNull {
+            try {
+                CredentialData.fromUri(Uri.parse(it)).apply { validate() }
+            } catch (e: Exception) {
+                Log.d("yubioath", "Skipping invalid credential: ${e.message}")
+                null
+            }
+        }
+
+        return requestClient { client ->
+            val start = SystemClock.elapsedRealtime()
+            val results = client.importCredentials(items)
+            val millis = SystemClock.elapsedRealtime() - start
+            synchronized(this) {
+                results.forEach { result ->
+                    result.credential?.let {
+                        credsMap[it] = null
+                    } ?: Log.d("yubioath", "Failed to import ${result.data.key}: ${result.error}")
+                }
+                _creds.postValue(credsMap.toMap())
+            }
+            ImportSummary(uris.size, results.count { it.credential != null }, millis).also {
+                Log.d("yubioath", "Imported ${it.imported}/${it.total} credentials in ${it.millis}ms")
+            }
+        }
+    }
+
     fun insertCredential(credential: Credential, code: Code?) {
         val deviceInfo = deviceInfo.value!!
-        if (deviceInfo.id.isNotEmpty() && credential.deviceId != deviceInfo.id) throw IllegalArgumentException("Credential belongs to different device!")
-        credsMap[credential] = code
-        _creds.postValue(credsMap)
+        if (deviceInfo.id.isNotEmpty() && credential.deviceId != deviceInfo.id && !isAttached(credential.deviceId)) throw IllegalArgumentException("Credential belongs to different device!")
+        synchronized(this) {
+            credsMap[credential] = code
+            _creds.postValue(credsMap.toMap())
+        }
         scheduleRefresh()
     }
 
+    /**
+     * Shows the credentials of the last used device, without codes, until a device is connected.
+     */
+    fun showCachedCredentials(cache: CredentialCache) = synchronized(this) {
+        if (credsMap.isEmpty()) {
+            cache.lastDeviceId?.let { deviceId ->
+                cache.getCredentials(deviceId).forEach { credsMap[it] = null }
+            }
+            if (credsMap.isNotEmpty()) {
+                _creds.postValue(credsMap.toMap())
+            }
+        }
+    }
+
     fun clearCredentials() {
         val deviceInfo = deviceInfo.value!!
         selectedItem = null
-        credsMap.clear()
+        synchronized(this) {
+            credsMap.clear()
+        }
 
         // If we have a persistent device, we try to re-read the codes and update instead of clearing.
         if (deviceInfo.persistent) {
@@ -87,7 +149,8 @@ class OathViewModel : BaseViewModel() {
         }
     }
 
-    private fun currentTime(boost: Boolean = false) = System.currentTimeMillis() + if (!boost && deviceInfo.value!!.persistent) 0 else 10000
+    // Codes calculated on request are boosted, so they don't expire right after being shown.
+    private fun currentTime() = System.currentTimeMillis() + 10000
 
     fun scheduleRefresh() {
         refreshJob?.cancel()
@@ -104,30 +167,76 @@ class OathViewModel : BaseViewModel() {
 
                 refreshJob = launch(Dispatchers.Main) {
                     delay(deadline - now)
-                    mutableNeedsDevice.value = true
+                    if (advanceCodes()) {
+                        _creds.value = synchronized(this@OathViewModel) { credsMap.toMap() }
+                        scheduleRefresh()
+                    } else {
+                        mutableNeedsDevice.value = true
+                    }
                 }
 
             }
         }
     }
 
+    /**
+     * Replaces expired codes with the codes of the following time step, when these are known.
+     * Returns false if any TOTP code has expired without a replacement, meaning the device is needed.
+     */
+    private fun advanceCodes(): Boolean = synchronized(this) {
+        val now = System.currentTimeMillis()
+        var complete = true
+        credsMap.entries.forEach { entry ->
+            entry.value?.let { code ->
+                val current = code.advance(now)
+                entry.setValue(current)
+                if (entry.key.type == OathType.TOTP && !entry.key.touch && current.validUntil <= now) {
+                    complete = false
+                }
+            }
+        }
+        complete
+    }
+
     fun stopRefresh() {
         refreshJob?.cancel()
         refreshJob = null
     }
 
+    /**
+     * Refreshes the codes of the device, merging them with the credentials of any other devices which
+     * are still attached. Credentials of devices which are no longer connected are dropped.
+     */
     override suspend fun useClient(client: OathClient) {
-        credsMap = client.refreshCodes(currentTime(), credsMap).toMutableMap()
-        ndefCode?.let {
-            credsMap[Credential(client.deviceInfo.id, NDEF_KEY, null, false)] = it
-        }
-        ndefCode = null
-        _creds.postValue(credsMap)
-        selectedItem?.let {
-            if (client.deviceInfo.id != it.deviceId) {
-                selectedItem = null
+        val deviceId = client.deviceInfo.id
+        val existing = synchronized(this) { credsMap.filterKeys { it.deviceId == deviceId } }
+        // Codes for the next time step only pay off for devices which are gone after the tap.
+        val codes = client.refreshCodes(System.currentTimeMillis(), existing, !client.deviceInfo.persistent)
+        synchronized(this) {
+            credsMap = credsMap.filterKeys { it.deviceId != deviceId && isAttached(it.deviceId) }.toMutableMap()
+            credsMap.putAll(codes)
+            ndefCode?.let {
+                credsMap[Credential(deviceId, NDEF_KEY, null, false)] = it
+            }
+            ndefCode = null
+            Latency.onPosted()
+            _creds.postValue(credsMap.toMap())
+            selectedItem?.let {
+                if (it !in credsMap) {
+                    selectedItem = null
+                }
             }
         }
         scheduleRefresh()
     }
+
+    override fun onDeviceRemoved(deviceId: String) {
+        super.onDeviceRemoved(deviceId)
+        synchronized(this) {
+            // The last device keeps its credentials shown, as when there is only one.
+            if (credsMap.keys.any { it.deviceId != deviceId } && credsMap.keys.removeAll { it.deviceId == deviceId }) {
+                _creds.postValue(credsMap.toMap())
+            }
+        }
+    }
 }
\ No newline at end of file
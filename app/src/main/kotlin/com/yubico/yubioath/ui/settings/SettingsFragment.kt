@@ -1,6 +1,9 @@
 package com.yubico.yubioath.ui.settings
 
+import android.content.Intent
 import android.os.Bundle
+import android.os.Handler
+import android.os.SystemClock
 import android.text.Html
 import android.text.method.LinkMovementMethod
 import android.view.WindowManager
@@ -13,11 +16,21 @@ import androidx.preference.Preference
 import androidx.preference.PreferenceFragmentCompat
 import com.yubico.yubioath.R
 import com.yubico.yubioath.scancode.KeyboardLayout
+import com.yubico.yubioath.ui.diagnostics.DiagnosticsActivity
 import com.yubico.yubioath.ui.main.IconManager
 import org.jetbrains.anko.toast
 
 class SettingsFragment : PreferenceFragmentCompat() {
+    companion object {
+        private const val DIAGNOSTICS_TAPS = 5
+        private const val DIAGNOSTICS_TAP_INTERVAL = 500L
+    }
+
     private val viewModel: SettingsViewModel by lazy { ViewModelProviders.of(activity!!).get(SettingsViewModel::class.java) }
+    private val handler = Handler()
+    private val showAbout = Runnable { showAboutDialog() }
+    private var aboutTaps = 0
+    private var lastAboutTap = 0L
 
     private inline fun onPreferenceChange(key: String, crossinline func: (value: Any) -> Unit) {
         preferenceManager.findPreference<Preference>(key)?.onPreferenceChangeListener = Preference.OnPreferenceChangeListener { _, value ->
@@ -67,21 +80,18 @@ class SettingsFragment : PreferenceFragmentCompat() {
             }
 
             onPreferenceClick("about") {
-                val appVersion: String = packageManager.getPackageInfo(packageName, 0).versionName
-                val oathVersion = with(viewModel.deviceInfo.value!!) { if (id.isNotEmpty()) "$version" else getString(com.yubico.yubioath.R.string.no_device) }
-
-                AlertDialog.Builder(this)
-                        .setTitle(R.string.about_title)
-                        .setMessage(Html.fromHtml(String.format(getString(R.string.about_text), appVersion, oathVersion)))
-                        .create().apply {
-                            show()
-                            findViewById<TextView>(android.R.id.message)?.movementMethod = LinkMovementMethod.getInstance()
-                            viewModel.deviceInfo.observe(viewLifecycleOwner, Observer {
-                                if (isShowing) {
-                                    setMessage(Html.fromHtml(String.format(getString(R.string.about_text), appVersion, it.version)))
-                                }
-                            })
-                        }
+                // Repeated quick taps open the hidden diagnostics screen instead. The dialog, which
+                // would cover the preference, is only shown once no more taps follow.
+                val now = SystemClock.elapsedRealtime()
+                aboutTaps = if (now - lastAboutTap < DIAGNOSTICS_TAP_INTERVAL) aboutTaps + 1 else 1
+                lastAboutTap = now
+                handler.removeCallbacks(showAbout)
+                if (aboutTaps >= DIAGNOSTICS_TAPS) {
+                    aboutTaps = 0
+                    startActivity(Intent(this, DiagnosticsActivity::class.java))
+                } else {
+                    handler.postDelayed(showAbout, DIAGNOSTICS_TAP_INTERVAL)
+                }
             }
 
             onPreferenceChange("readNdefData") {
@@ -95,4 +105,29 @@ class SettingsFragment : PreferenceFragmentCompat() {
             }
         }
     }
+
+    override fun onPause() {
+        handler.removeCallbacks(showAbout)
+        super.onPause()
+    }
+
+    private fun showAboutDialog() {
+        val activity = activity ?: return
+        aboutTaps = 0
+        val appVersion: String = activity.packageManager.getPackageInfo(activity.packageName, 0).versionName
+        val oathVersion = with(viewModel.deviceInfo.value!!) { if (id.isNotEmpty()) "$version" else getString(com.yubico.yubioath.R.string.no_device) }
+
+        AlertDialog.Builder(activity)
+                .setTitle(R.string.about_title)
+                .setMessage(Html.fromHtml(String.format(getString(R.string.about_text), appVersion, oathVersion)))
+                .create().apply {
+                    show()
+                    findViewById<TextView>(android.R.id.message)?.movementMethod = LinkMovementMethod.getInstance()
+                    viewModel.deviceInfo.observe(viewLifecycleOwner, Observer {
+                        if (isShowing) {
+                            setMessage(Html.fromHtml(String.format(getString(R.string.about_text), appVersion, it.version)))
+                        }
+                    })
+                }
+    }
 }
\ No newline at end of file
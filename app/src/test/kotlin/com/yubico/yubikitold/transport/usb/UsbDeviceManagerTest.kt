@@ -0,0 +1,130 @@
+package com.yubico.yubikitold.transport.usb
+
+import android.content.Context
+import android.content.Intent
+import android.hardware.usb.UsbDevice
+import android.hardware.usb.UsbManager
+import android.os.Handler
+import android.os.Looper
+import com.yubico.yubikitold.transport.OnYubiKeyListener
+import com.yubico.yubikitold.transport.YubiKeyTransport
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.Shadows
+import org.robolectric.annotation.Config
+import java.util.concurrent.TimeUnit
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, sdk = [28])
+class UsbDeviceManagerTest {
+    private val context = RuntimeEnvironment.application
+    private val usbManager = Shadows.shadowOf(context.getSystemService(Context.USB_SERVICE) as UsbManager)
+    private val looper = Shadows.shadowOf(Looper.getMainLooper())
+    private val manager = UsbDeviceManager(context, Handler(Looper.getMainLooper()))
+
+    // Device names reported to the listener, prefixed with "-" when removed, and null once none remain.
+    private val events = mutableListOf<String?>()
+    private val listener = object : OnYubiKeyListener {
+        override fun onYubiKey(transport: YubiKeyTransport?) {
+            events.add((transport as UsbTransport?)?.usbDevice?.deviceName)
+        }
+
+        override fun onYubiKeyRemoved(transport: YubiKeyTransport) {
+            events.add("-" + (transport as UsbTransport).usbDevice.deviceName)
+        }
+    }
+
+    private fun device(name: String, vendorId: Int = 0x1050): UsbDevice = Mockito.mock(UsbDevice::class.java).apply {
+        Mockito.`when`(deviceName).thenReturn(name)
+        Mockito.`when`(this.vendorId).thenReturn(vendorId)
+    }
+
+    private fun attach(device: UsbDevice) {
+        usbManager.addOrUpdateUsbDevice(device, true)
+        context.sendBroadcast(Intent(UsbManager.ACTION_USB_DEVICE_ATTACHED).putExtra(UsbManager.EXTRA_DEVICE, device))
+        looper.idle()
+    }
+
+    private fun detach(device: UsbDevice) {
+        usbManager.removeUsbDevice(device)
+        context.sendBroadcast(Intent(UsbManager.ACTION_USB_DEVICE_DETACHED).putExtra(UsbManager.EXTRA_DEVICE, device))
+        looper.idle()
+    }
+
+    @Test
+    fun testAttachDetach() {
+        manager.setOnYubiKeyListener(listener)
+        looper.idle()
+        Assert.assertEquals(listOf<String?>(), events)
+
+        val yubiKey = device("/dev/bus/usb/001/002")
+        attach(device("/dev/bus/usb/001/003", 0x1234))
+        attach(yubiKey)
+        Assert.assertEquals(listOf<String?>(yubiKey.deviceName), events)
+
+        detach(yubiKey)
+        Assert.assertEquals(listOf(yubiKey.deviceName, "-" + yubiKey.deviceName, null), events)
+
+        manager.setOnYubiKeyListener(null)
+        looper.idle()
+        attach(yubiKey)
+        Assert.assertEquals(3, events.size)
+    }
+
+    @Test
+    fun testMultipleDevices() {
+        val first = device("/dev/bus/usb/001/002")
+        val second = device("/dev/bus/usb/001/004")
+        usbManager.addOrUpdateUsbDevice(first, true)
+        manager.setOnYubiKeyListener(listener)
+        looper.idle()
+        attach(second)
+        Assert.assertEquals(listOf<String?>(first.deviceName, second.deviceName), events)
+
+        detach(first)
+        Assert.assertEquals(listOf<String?>(first.deviceName, second.deviceName, "-" + first.deviceName), events)
+
+        events.clear()
+        manager.triggerOnYubiKey()
+        looper.idle()
+        Assert.assertEquals(listOf<String?>(second.deviceName), events)
+
+        detach(second)
+        Assert.assertEquals(listOf(second.deviceName, "-" + second.deviceName, null), events)
+    }
+
+    @Test
+    fun testLaunchIntent() {
+        val yubiKey = device("/dev/bus/usb/001/002")
+        usbManager.addOrUpdateUsbDevice(yubiKey, true)
+        manager.setOnYubiKeyListener(listener)
+        manager.handleIntent(Intent(UsbManager.ACTION_USB_DEVICE_ATTACHED).putExtra(UsbManager.EXTRA_DEVICE, yubiKey))
+        looper.idle()
+        Assert.assertEquals(listOf<String?>(yubiKey.deviceName), events)
+
+        manager.triggerOnYubiKey()
+        looper.idle()
+        Assert.assertEquals(listOf<String?>(yubiKey.deviceName, yubiKey.deviceName), events)
+    }
+
+    @Test
+    fun testPolling() {
+        manager.setOnYubiKeyListener(listener)
+        looper.idle()
+        Assert.assertEquals(0, looper.scheduler.size())
+
+        val yubiKey = device("/dev/bus/usb/001/002")
+        manager.setPollInterval(5000)
+        manager.triggerOnYubiKey()
+        looper.idle()
+        usbManager.addOrUpdateUsbDevice(yubiKey, true)
+        looper.idle(4, TimeUnit.SECONDS)
+        Assert.assertEquals(listOf<String?>(), events)
+        looper.idle(1, TimeUnit.SECONDS)
+        Assert.assertEquals(listOf<String?>(yubiKey.deviceName), events)
+    }
+}
@@ -0,0 +1,71 @@
+package com.yubico.yubioath.client
+
+import android.content.Context
+import android.content.SharedPreferences
+import com.yubico.yubikitold.application.oath.HashAlgorithm
+import com.yubico.yubikitold.application.oath.OathType
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, sdk = [28])
+class CredentialCacheTest {
+    private val prefs = RuntimeEnvironment.application.getSharedPreferences("test", Context.MODE_PRIVATE)
+
+    @Test
+    fun testPersistAndMerge() {
+        val cache = CredentialCache(prefs)
+        Assert.assertFalse(cache.hasDevice("device"))
+        cache.update("device", listOf(
+                CredentialCache.Entry("Issuer:foo", OathType.TOTP, HashAlgorithm.SHA256, false),
+                CredentialCache.Entry("60/bar", OathType.TOTP, null, true),
+                CredentialCache.Entry("_hidden:baz", OathType.HOTP, null, false)
+        ))
+
+        val reloaded = CredentialCache(prefs)
+        Assert.assertEquals("device", reloaded.lastDeviceId)
+        Assert.assertEquals(3, reloaded.getEntries("device").size)
+        Assert.assertEquals(60, reloaded.getEntries("device")[1].period)
+        Assert.assertEquals(listOf("Issuer:foo", "60/bar"), reloaded.getCredentials("device").map { it.key })
+        Assert.assertTrue(reloaded.getCredentials("device")[1].touch)
+
+        // CALCULATE ALL doesn't report the algorithm, the stored one is kept.
+        reloaded.update("device", listOf(CredentialCache.Entry("Issuer:foo", OathType.TOTP, null, false)))
+        Assert.assertEquals(listOf(CredentialCache.Entry("Issuer:foo", OathType.TOTP, HashAlgorithm.SHA256, false)), reloaded.getEntries("device"))
+
+        reloaded.remove("device", "Issuer:foo")
+        Assert.assertTrue(CredentialCache(prefs).getEntries("device").isEmpty())
+        Assert.assertTrue(CredentialCache(prefs).hasDevice("device"))
+    }
+
+    @Test
+    fun testTwoDevices() {
+        val entries = listOf(CredentialCache.Entry("foo", OathType.TOTP, null, false))
+        val cache = CredentialCache(prefs)
+        cache.update("a", entries)
+        cache.update("b", entries)
+        Assert.assertEquals("b", cache.lastDeviceId)
+
+        // Refreshing both devices in turn doesn't write anything as long as nothing changes.
+        var writes = 0
+        val listener = SharedPreferences.OnSharedPreferenceChangeListener { _, _ -> writes++ }
+        prefs.registerOnSharedPreferenceChangeListener(listener)
+        repeat(3) {
+            cache.update("a", entries)
+            cache.update("b", entries)
+        }
+        Assert.assertEquals(0, writes)
+        cache.update("a", entries + CredentialCache.Entry("bar", OathType.TOTP, null, false))
+        Assert.assertEquals(1, writes)
+        prefs.unregisterOnSharedPreferenceChangeListener(listener)
+
+        // A device connected again later is the last one.
+        CredentialCache(prefs).update("a", entries)
+        Assert.assertEquals("a", CredentialCache(prefs).lastDeviceId)
+        Assert.assertEquals(listOf("foo"), CredentialCache(prefs).getCredentials("b").map { it.key })
+    }
+}
@@ -0,0 +1,95 @@
+package com.yubico.yubioath.client
+
+import com.yubico.yubioath.keystore.KeyProvider
+import com.yubico.yubioath.keystore.StoredSigner
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert
+import org.junit.Test
+import org.mockito.Mockito
+
+class KeyManagerTest {
+    private class FakeSigner(val id: Int) : StoredSigner {
+        var promoted = false
+
+        override fun sign(input: ByteArray): ByteArray = byteArrayOf(id.toByte())
+
+        override fun promote() {
+            promoted = true
+        }
+    }
+
+    @Test
+    fun testSignerCache() {
+        val permStore = Mockito.mock(KeyProvider::class.java)
+        val signers = listOf(FakeSigner(0), FakeSigner(1))
+        Mockito.`when`(permStore.hasKeys("device")).thenReturn(true)
+        Mockito.`when`(permStore.getKeys("device")).thenAnswer { signers.asSequence() }
+        val keyManager = KeyManager(permStore, Mockito.mock(KeyProvider::class.java))
+
+        val first = keyManager.getKeys("device").toList()
+        Assert.assertEquals(2, first.size)
+        first[1].promote()
+        Assert.assertTrue(signers[1].promoted)
+
+        val second = keyManager.getKeys("device").toList()
+        Assert.assertEquals(1, second.size)
+        Assert.assertArrayEquals(byteArrayOf(1), second[0].sign(byteArrayOf()))
+        Mockito.verify(permStore, Mockito.times(1)).getKeys("device")
+
+        keyManager.clearKeys("device")
+        Assert.assertEquals(2, keyManager.getKeys("device").count())
+        Mockito.verify(permStore, Mockito.times(2)).getKeys("device")
+    }
+
+    @Test
+    fun testClearThroughOtherInstance() {
+        val permStore = Mockito.mock(KeyProvider::class.java)
+        Mockito.`when`(permStore.hasKeys("device")).thenReturn(true)
+        Mockito.`when`(permStore.getKeys("device")).thenAnswer { sequenceOf(FakeSigner(0)) }
+        val keyManager = KeyManager(permStore, Mockito.mock(KeyProvider::class.java))
+        Assert.assertEquals(1, keyManager.getKeys("device").count())
+
+        // Such as clearing passwords from the settings, while the main activity keeps its manager.
+        KeyManager(permStore, Mockito.mock(KeyProvider::class.java)).clearAll()
+        Assert.assertEquals(1, keyManager.getKeys("device").count())
+        Mockito.verify(permStore, Mockito.times(2)).getKeys("device")
+    }
+
+    @Test
+    fun testCalculateSecrets() = runBlocking {
+        val salt = byteArrayOf(1, 2, 3, 4, 5, 6, 7, 8)
+        val (secret, legacySecret) = KeyManager.calculateSecrets("password", salt)
+
+        val derivations = KeyManager.derivations.get()
+        Assert.assertArrayEquals(KeyManager.calculateSecret("password", salt, false), secret)
+        Assert.assertArrayEquals(KeyManager.calculateSecret("password", salt, true), legacySecret)
+        Assert.assertEquals(derivations, KeyManager.derivations.get())
+        Assert.assertFalse(secret.contentEquals(KeyManager.calculateSecret("other", salt, false)))
+        Assert.assertEquals(0, KeyManager.calculateSecret("", salt, false).size)
+    }
+
+    @Test
+    fun testSecretCacheExpiry() {
+        val salt = byteArrayOf(8, 7, 6, 5, 4, 3, 2, 1)
+        var now = 0L
+        KeyManager.nanoTime = { now }
+        try {
+            KeyManager.clearSecrets()
+            val derivations = KeyManager.derivations.get()
+            val secret = KeyManager.calculateSecret("password", salt, false)
+            Assert.assertArrayEquals(secret, KeyManager.calculateSecret("password", salt, false))
+            Assert.assertEquals(derivations + 1, KeyManager.derivations.get())
+
+            now += 61_000_000_000L
+            Assert.assertArrayEquals(secret, KeyManager.calculateSecret("password", salt, false))
+            Assert.assertEquals(derivations + 2, KeyManager.derivations.get())
+
+            KeyManager.clearSecrets()
+            KeyManager.calculateSecret("password", salt, false)
+            Assert.assertEquals(derivations + 3, KeyManager.derivations.get())
+        } finally {
+            KeyManager.nanoTime = System::nanoTime
+            KeyManager.clearSecrets()
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.yubico.yubioath.client
+
+import org.junit.Assert
+import org.junit.Test
+
+class LatencyHistogramTest {
+    @Test
+    fun testSnapshot() {
+        val histogram = LatencyHistogram()
+        Assert.assertEquals(0L, histogram.snapshot().count)
+
+        (1..1000L).forEach { histogram.record(it * 1000) }
+        histogram.snapshot().apply {
+            Assert.assertEquals(1000L, count)
+            Assert.assertEquals(1L, min)
+            Assert.assertEquals(1000L, max)
+            Assert.assertEquals(500L, mean)
+            Assert.assertEquals(511L, p50)
+            Assert.assertEquals(1000L, p90)
+            Assert.assertEquals(1000L, p99)
+        }
+
+        histogram.reset()
+        histogram.record(-5)
+        Assert.assertEquals(LatencyHistogram.Snapshot(1, 0, 0, 0, 0, 0, 0), histogram.snapshot())
+    }
+}
@@ -1,11 +1,17 @@
 package com.yubico.yubioath.model
 
+import android.content.Context
 import com.yubico.yubikitold.application.oath.HashAlgorithm
 import com.yubico.yubikitold.application.oath.OathType
 import com.yubico.yubikitold.transport.Iso7816Connection
+import com.yubico.yubikitold.transport.RecordingConnection
+import com.yubico.yubikitold.transport.ReplayConnection
+import com.yubico.yubikitold.virtualkey.VirtualOathKey
+import com.yubico.yubioath.client.CredentialCache
 import com.yubico.yubioath.client.CredentialData
 import com.yubico.yubioath.client.KeyManager
 import com.yubico.yubioath.client.OathClient
+import com.yubico.yubioath.exc.DuplicateKeyException
 import com.yubico.yubioath.keystore.KeyProvider
 import kotlinx.coroutines.runBlocking
 import org.junit.Assert
@@ -14,7 +20,10 @@ import org.junit.runner.RunWith
 import org.mockito.Mockito
 import org.mockito.Mockito.anyByte
 import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
 import org.robolectric.annotation.Config
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
 
 @RunWith(RobolectricTestRunner::class)
 @Config(manifest=Config.NONE, sdk = [28])
@@ -50,6 +59,96 @@ class YubiKeyOathTest {
         }
     }
 
+    @Test
+    fun testRefreshGroupedByPeriod() {
+        val keyManager = KeyManager(Mockito.mock(KeyProvider::class.java), Mockito.mock(KeyProvider::class.java))
+        val backendMock = Mockito.mock(Iso7816Connection::class.java)
+        val foo = byteArrayOf(0x71, 6, '6'.toByte(), '0'.toByte(), '/'.toByte(), 'f'.toByte(), 'o'.toByte(), 'o'.toByte())
+        val bar = byteArrayOf(0x71, 6, '6'.toByte(), '0'.toByte(), '/'.toByte(), 'b'.toByte(), 'a'.toByte(), 'r'.toByte())
+        Mockito.`when`(backendMock.send(anyByte(), anyByte(), anyByte(), anyByte(), Mockito.any(ByteArray::class.java))).thenReturn(
+                byteArrayOf(0x79, 3, 0, 0, 0, 0x71, 0, 0x90.toByte(), 0x00), //SELECT
+                foo + byteArrayOf(0x76, 5, 6, 0, 0, 0, 0) + bar + byteArrayOf(0x76, 5, 6, 0, 0, 0, 0, 0x90.toByte(), 0x00), // CALCULATE_ALL, 30s
+                foo + byteArrayOf(0x76, 5, 6, 0x41, 0x39, 0x7e, 0xea.toByte()) + bar + byteArrayOf(0x76, 5, 6, 0, 0, 0, 1, 0x90.toByte(), 0x00)) // CALCULATE_ALL, 60s
+        runBlocking {
+            val key = OathClient(backendMock, keyManager)
+            val codes = key.refreshCodes(120000, mutableMapOf())
+
+            Mockito.verify(backendMock).send(0, 0xa4.toByte(), 0, 1, byteArrayOf(0x74, 0x08, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x04))
+            Mockito.verify(backendMock).send(0, 0xa4.toByte(), 0, 1, byteArrayOf(0x74, 0x08, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x02))
+            Mockito.verify(backendMock, Mockito.times(3)).send(anyByte(), anyByte(), anyByte(), anyByte(), Mockito.any(ByteArray::class.java))
+            Assert.assertEquals(listOf("287082", "000001"), codes.values.map { it?.value })
+            Assert.assertEquals(180000L, codes.values.first()?.validUntil)
+        }
+    }
+
+    @Test
+    fun testRefreshWithLookahead() {
+        val keyManager = KeyManager(Mockito.mock(KeyProvider::class.java), Mockito.mock(KeyProvider::class.java))
+        val backendMock = Mockito.mock(Iso7816Connection::class.java)
+        val foo = byteArrayOf(0x71, 3, 'f'.toByte(), 'o'.toByte(), 'o'.toByte())
+        Mockito.`when`(backendMock.send(anyByte(), anyByte(), anyByte(), anyByte(), Mockito.any(ByteArray::class.java))).thenReturn(
+                byteArrayOf(0x79, 3, 0, 0, 0, 0x71, 0, 0x90.toByte(), 0x00), //SELECT
+                foo + byteArrayOf(0x76, 5, 6, 0, 0, 0, 1, 0x90.toByte(), 0x00), // CALCULATE_ALL, current step
+                foo + byteArrayOf(0x76, 5, 6, 0, 0, 0, 2, 0x90.toByte(), 0x00)) // CALCULATE_ALL, next step
+        runBlocking {
+            val key = OathClient(backendMock, keyManager)
+            val code = key.refreshCodes(59000, mutableMapOf(), true).values.first()!!
+
+            Mockito.verify(backendMock).send(0, 0xa4.toByte(), 0, 1, byteArrayOf(0x74, 0x08, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01))
+            Mockito.verify(backendMock).send(0, 0xa4.toByte(), 0, 1, byteArrayOf(0x74, 0x08, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x02))
+            Assert.assertEquals("000001", code.value)
+            Assert.assertEquals("000002", code.next?.value)
+            Assert.assertEquals(60000L, code.next?.validFrom)
+            Assert.assertSame(code, code.advance(59999))
+            Assert.assertEquals("000002", code.advance(60000).value)
+            Assert.assertEquals("000002", code.advance(90000).value)
+        }
+    }
+
+    @Test
+    fun testRefreshManyCredentials() {
+        val keyManager = KeyManager(Mockito.mock(KeyProvider::class.java), Mockito.mock(KeyProvider::class.java))
+        runBlocking {
+            val key = OathClient(VirtualOathKey.withCredentials(200), keyManager)
+            val codes = key.refreshCodes(59000, mutableMapOf(), true)
+
+            Assert.assertEquals(200, codes.size)
+            Assert.assertTrue(codes.values.all { it?.next != null })
+            Assert.assertEquals("Issuer 199:user199@example.com", codes.keys.last().key)
+        }
+    }
+
+    @Test
+    fun testReplayRecordedSession() {
+        val keyManager = KeyManager(Mockito.mock(KeyProvider::class.java), Mockito.mock(KeyProvider::class.java))
+        val recording = ByteArrayOutputStream()
+        val recorded = RecordingConnection(VirtualOathKey.withCredentials(32), recording).use {
+            OathClient(it, keyManager).refreshCodes(59000, mutableMapOf(), true)
+        }
+
+        val replay = ReplayConnection(ByteArrayInputStream(recording.toByteArray()), 0.0)
+        val replayed = OathClient(replay, keyManager).refreshCodes(59000, mutableMapOf(), true)
+        Assert.assertEquals(recorded, replayed)
+        Assert.assertEquals(0, replay.remaining)
+    }
+
+    @Test
+    fun testDuplicateWithStaleCache() {
+        val keyManager = KeyManager(Mockito.mock(KeyProvider::class.java), Mockito.mock(KeyProvider::class.java))
+        val cache = CredentialCache(RuntimeEnvironment.application.getSharedPreferences("stale", Context.MODE_PRIVATE))
+        val client = OathClient(VirtualOathKey.withCredentials(1), keyManager, cache)
+        // The credential was added from another host since the device was last seen.
+        cache.update(client.deviceInfo.id, emptyList())
+
+        try {
+            client.addCredential(CredentialData(ByteArray(20), "Issuer 000", "user000@example.com", OathType.TOTP))
+            Assert.fail("Stored credential overwritten")
+        } catch (e: DuplicateKeyException) {
+        }
+        val imported = client.importCredentials(listOf(CredentialData(ByteArray(20), "Issuer 000", "user000@example.com", OathType.TOTP)))
+        Assert.assertTrue(imported[0].error is DuplicateKeyException)
+    }
+
     @Test
     fun testStoreCodeInstruction() {
         val keyManager = KeyManager(Mockito.mock(KeyProvider::class.java), Mockito.mock(KeyProvider::class.java))
@@ -0,0 +1,59 @@
+package com.yubico.yubikitold.benchmark;
+
+import com.yubico.yubikitold.application.AbstractApplication;
+import com.yubico.yubikitold.application.ApduException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/**
+ * Command chaining of large commands, and reassembly of responses split over 61 xx.
+ */
+@State(Scope.Thread)
+public class ApduBenchmark {
+    private static final byte[] AID = new byte[]{(byte) 0xa0, 0x00, 0x00, 0x05, 0x27, 0x21, 0x01};
+    private static final byte[] SW_OK = new byte[]{(byte) 0x90, 0x00};
+
+    /**
+     * The number of APDUs needed for the command, and for the response.
+     */
+    @Param({"1", "4", "16"})
+    public int apdus;
+
+    private byte[] command;
+    private ScriptedConnection chainingConnection;
+    private ScriptedConnection reassemblyConnection;
+    private AbstractApplication chainingApp;
+    private AbstractApplication reassemblyApp;
+
+    private static class Application extends AbstractApplication {
+        Application(ScriptedConnection connection) {
+            super(connection, AID, (byte) 0xa5);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        command = new byte[apdus * 0xff];
+        chainingConnection = new ScriptedConnection(SW_OK);
+        chainingApp = new Application(chainingConnection);
+        reassemblyConnection = new ScriptedConnection(ScriptedConnection.chunked(new byte[apdus * 0xff - 2]));
+        reassemblyApp = new Application(reassemblyConnection);
+    }
+
+    @Benchmark
+    public byte[] commandChaining() throws IOException, ApduException {
+        return chainingApp.send(0x01, 0, 0, command);
+    }
+
+    @Benchmark
+    public byte[] sendRemaining() throws IOException, ApduException {
+        reassemblyConnection.rewind();
+        return reassemblyApp.send(0xa4, 0, 1);
+    }
+}
@@ -0,0 +1,76 @@
+package com.yubico.yubikitold.benchmark;
+
+import com.yubico.yubikitold.application.ApduException;
+import com.yubico.yubikitold.application.TlvWriter;
+import com.yubico.yubikitold.application.oath.CalculateResponse;
+import com.yubico.yubikitold.application.oath.OathApplication;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A full CALCULATE ALL round, as done on each refresh, and formatting of the resulting codes.
+ */
+@State(Scope.Thread)
+public class CalculateAllBenchmark {
+    @Param({"8", "32", "64", "200"})
+    public int credentials;
+
+    private final byte[] challenge = new byte[8];
+    private ScriptedConnection connection;
+    private OathApplication app;
+    private CalculateResponse truncated;
+    private CalculateResponse full;
+
+    @Setup
+    public void setup() throws IOException, ApduException {
+        TlvWriter writer = new TlvWriter();
+        for (int i = 0; i < credentials; i++) {
+            writer.putUtf8((byte) 0x71, String.format("cred%03d", i));
+            writer.putHeader((byte) 0x76, 5).putByte((byte) 6).putInt(0x12345678 + i);
+        }
+        connection = new ScriptedConnection(ScriptedConnection.chunked(writer.toByteArray()));
+        app = new OathApplication(connection);
+        truncated = app.calculateAll(challenge).get(0);
+
+        byte[] response = new byte[22];
+        response[0] = 0x75;
+        response[1] = 20;
+        response[2] = 5;
+        for (int i = 3; i < response.length; i++) {
+            response[i] = (byte) (i * 31);
+        }
+        full = new OathApplication(new ScriptedConnection(ScriptedConnection.chunked(response))).calculate("Steam:user", challenge, false);
+    }
+
+    @Benchmark
+    public List<CalculateResponse> calculateAll() throws IOException, ApduException {
+        connection.rewind();
+        return app.calculateAll(challenge);
+    }
+
+    @Benchmark
+    public void calculateAllAndFormat(Blackhole bh) throws IOException, ApduException {
+        connection.rewind();
+        for (CalculateResponse response : app.calculateAll(challenge)) {
+            bh.consume(response.formatTruncated());
+        }
+    }
+
+    @Benchmark
+    public String formatTruncated() {
+        return truncated.formatTruncated();
+    }
+
+    @Benchmark
+    public String formatSteam() {
+        return full.formatSteam();
+    }
+}
@@ -0,0 +1,22 @@
+package com.yubico.yubikitold.benchmark;
+
+import com.yubico.yubikitold.application.oath.CredentialId;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Splitting of credential names into period, issuer and name.
+ */
+@State(Scope.Thread)
+public class CredentialIdBenchmark {
+    @Param({"user@example.com", "Example:user@example.com", "60/Example:user@example.com"})
+    public String key;
+
+    @Benchmark
+    public CredentialId parse() {
+        return CredentialId.parse(key);
+    }
+}
@@ -0,0 +1,51 @@
+package com.yubico.yubikitold.benchmark;
+
+import com.yubico.yubikitold.transport.Iso7816Connection;
+
+/**
+ * A connection which answers every command with the next of a fixed set of responses, starting
+ * over from the first once all have been returned.
+ */
+final class ScriptedConnection implements Iso7816Connection {
+    private final byte[][] responses;
+    private int next = 0;
+
+    ScriptedConnection(byte[]... responses) {
+        this.responses = responses;
+    }
+
+    void rewind() {
+        next = 0;
+    }
+
+    @Override
+    public byte[] send(byte cla, byte ins, byte p1, byte p2, byte[] data) {
+        byte[] response = responses[next];
+        next = (next + 1) % responses.length;
+        return response;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Splits a response into APDUs of at most 0xff bytes of data each, as a YubiKey does, with
+     * 61 xx on all but the last one.
+     */
+    static byte[][] chunked(byte[] body) {
+        int count = Math.max(1, (body.length + 0xfe) / 0xff);
+        byte[][] responses = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            int offset = i * 0xff;
+            int length = Math.min(0xff, body.length - offset);
+            byte[] response = new byte[length + 2];
+            System.arraycopy(body, offset, response, 0, length);
+            boolean last = i == count - 1;
+            response[length] = (byte) (last ? 0x90 : 0x61);
+            response[length + 1] = 0x00;
+            responses[i] = response;
+        }
+        return responses;
+    }
+}
@@ -0,0 +1,78 @@
+package com.yubico.yubikitold.benchmark;
+
+import com.yubico.yubikitold.application.Tlv;
+import com.yubico.yubikitold.application.TlvCursor;
+import com.yubico.yubikitold.application.TlvTable;
+import com.yubico.yubikitold.application.TlvWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parsing and building of TLV encoded data.
+ */
+@State(Scope.Thread)
+public class TlvBenchmark {
+    @Param({"4", "64"})
+    public int entries;
+
+    private byte[] encoded;
+    private byte[] value;
+    private List<Tlv> tlvs;
+    private final TlvWriter writer = new TlvWriter();
+    private final TlvTable table = new TlvTable();
+
+    @Setup
+    public void setup() {
+        value = new byte[20];
+        tlvs = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            tlvs.add(Tlv.of((byte) (0x71 + i % 8), value));
+        }
+        encoded = Tlv.Group.of(tlvs).getBytes();
+    }
+
+    @Benchmark
+    public List<Tlv> groupToList() {
+        return new Tlv.Group(encoded).toList();
+    }
+
+    @Benchmark
+    public void cursor(Blackhole bh) throws IOException {
+        TlvCursor cursor = new TlvCursor(encoded);
+        while (cursor.next()) {
+            bh.consume(cursor.getLength());
+        }
+    }
+
+    @Benchmark
+    public TlvTable table() throws IOException {
+        return table.parse(encoded);
+    }
+
+    @Benchmark
+    public Tlv.Group groupOf() {
+        List<Tlv> list = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            list.add(Tlv.of((byte) (0x71 + i % 8), value));
+        }
+        return Tlv.Group.of(list);
+    }
+
+    @Benchmark
+    public int writer() {
+        writer.reset();
+        for (int i = 0; i < entries; i++) {
+            writer.put((byte) (0x71 + i % 8), value);
+        }
+        return writer.getLength();
+    }
+}
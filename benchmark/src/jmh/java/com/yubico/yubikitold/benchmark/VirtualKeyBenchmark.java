@@ -0,0 +1,44 @@
+package com.yubico.yubikitold.benchmark;
+
+import com.yubico.yubikitold.application.ApduException;
+import com.yubico.yubikitold.application.oath.CalculateResponse;
+import com.yubico.yubikitold.application.oath.OathApplication;
+import com.yubico.yubikitold.virtualkey.VirtualOathKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A SELECT and CALCULATE ALL against the virtual key, with real HMAC on the key side, as done when
+ * a key is connected.
+ */
+@State(Scope.Thread)
+public class VirtualKeyBenchmark {
+    @Param({"8", "32", "200"})
+    public int credentials;
+
+    @Param({"false", "true"})
+    public boolean extendedLength;
+
+    private final byte[] challenge = new byte[8];
+    private OathApplication app;
+
+    @Setup
+    public void setup() {
+        VirtualOathKey key = VirtualOathKey.withCredentials(credentials);
+        key.setExtendedLengthSupported(extendedLength);
+        app = new OathApplication(key);
+    }
+
+    @Benchmark
+    public List<CalculateResponse> selectAndCalculateAll() throws IOException, ApduException {
+        app.select();
+        return app.calculateAll(challenge);
+    }
+}
@@ -0,0 +1,264 @@
+package com.yubico.yubikitold.application;
+
+import com.yubico.yubikitold.transport.Apdus;
+import com.yubico.yubikitold.transport.CommandApdu;
+import com.yubico.yubikitold.transport.Iso7816Connection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class AbstractApplication {
+    private static final byte SW1_MORE_DATA = (byte) 0x61;
+    private static final short SW_OK = (short) 0x9000;
+    private static final byte[] EMPTY = new byte[0];
+    private static volatile ApduTracer tracer = null;
+
+    private final byte[] aid;
+    private final byte insSendRemaining;
+    private final Iso7816Connection backend;
+    private final TlvWriter commandWriter = new TlvWriter();
+    private final ResponseAssembler responseAssembler = new ResponseAssembler(1024);
+    private final String name = getClass().getSimpleName();
+    private boolean extendedLength = false;
+
+    protected AbstractApplication(Iso7816Connection backend, byte[] aid, byte insSendRemaining) {
+        this.backend = backend;
+        this.aid = aid;
+        this.insSendRemaining = insSendRemaining;
+    }
+
+    protected AbstractApplication(Iso7816Connection backend, byte[] aid) {
+        this(backend, aid, (byte) 0xc0);
+    }
+
+    public Iso7816Connection getBackend() {
+        return backend;
+    }
+
+    /**
+     * Use extended length APDUs for commands and responses instead of command chaining and
+     * SEND REMAINING, if the connection supports it. Applications should only enable this for
+     * firmware versions known to handle extended length APDUs.
+     *
+     * @param enabled whether to use extended length APDUs.
+     */
+    protected void setExtendedLength(boolean enabled) {
+        extendedLength = enabled && backend.isExtendedLengthSupported();
+    }
+
+    public boolean isExtendedLength() {
+        return extendedLength;
+    }
+
+    /**
+     * Set the tracer which receives the APDUs sent by all applications.
+     *
+     * @param tracer the tracer to use, or null to disable tracing.
+     */
+    public static void setTracer(ApduTracer tracer) {
+        AbstractApplication.tracer = tracer;
+    }
+
+    /**
+     * Whether the data of a command, and of its response, should be kept out of traces.
+     *
+     * @param ins the INS byte of the command.
+     * @return true if the command or response data is sensitive.
+     */
+    protected boolean isSensitive(byte ins) {
+        return false;
+    }
+
+    // Traced as a whole once the response is received, so that exchanges of applications running
+    // on different threads, such as with several YubiKeys, can't be mixed up by the tracer.
+    private void trace(ApduTracer tracer, byte cla, byte ins, byte p1, byte p2, byte[] data, byte[] resp, boolean sensitive) {
+        ApduTracer.Level level = tracer == null ? ApduTracer.Level.OFF : tracer.getLevel();
+        if (level != ApduTracer.Level.OFF) {
+            boolean redact = sensitive || level != ApduTracer.Level.DATA;
+            int length = resp.length - 2;
+            short sw = (short) (((resp[length] & 0xff) << 8) | (resp[length + 1] & 0xff));
+            tracer.onExchange(name, cla, ins, p1, p2, redact ? null : data, data.length, redact ? null : resp, length, sw);
+        }
+    }
+
+    private byte[] doSend(int cla, int ins, int p1, int p2, byte[] data, boolean sensitive, boolean extended) throws IOException {
+        byte[] resp = extended
+                ? backend.sendExtended((byte) cla, (byte) ins, (byte) p1, (byte) p2, data)
+                : backend.send((byte) cla, (byte) ins, (byte) p1, (byte) p2, data);
+        trace(AbstractApplication.tracer, (byte) cla, (byte) ins, (byte) p1, (byte) p2, data, resp, sensitive);
+        return resp;
+    }
+
+    public byte[] select() throws IOException, ApduException {
+        return ApduException.getChecked(doSend(0, 0xa4, 0x04, 0, aid, false, false));
+    }
+
+    /**
+     * Get the writer used to build the data of the next command. The writer is shared by all
+     * commands sent by this application, and is reset by this call.
+     *
+     * @return an empty TlvWriter.
+     */
+    protected TlvWriter beginCommand() {
+        return commandWriter.reset();
+    }
+
+    public byte[] send(int ins, int p1, int p2, TlvWriter data) throws IOException, ApduException {
+        return send(ins, p1, p2, data.getBuffer(), 0, data.getLength());
+    }
+
+    public byte[] send(int ins, int p1, int p2, byte[] data) throws IOException, ApduException {
+        return send(ins, p1, p2, data, 0, data.length);
+    }
+
+    public byte[] send(int ins, int p1, int p2, byte[] data, int offset, int length) throws IOException, ApduException {
+        ByteBuffer body = sendForBuffer(ins, p1, p2, data, offset, length);
+        return Arrays.copyOfRange(body.array(), body.arrayOffset() + body.position(), body.arrayOffset() + body.limit());
+    }
+
+    public byte[] send(int ins, int p1, int p2) throws IOException, ApduException {
+        return send(ins, p1, p2, EMPTY);
+    }
+
+    protected ByteBuffer sendForBuffer(int ins, int p1, int p2) throws IOException, ApduException {
+        return sendForBuffer(ins, p1, p2, EMPTY, 0, 0);
+    }
+
+    protected ByteBuffer sendForBuffer(int ins, int p1, int p2, TlvWriter data) throws IOException, ApduException {
+        return sendForBuffer(ins, p1, p2, data.getBuffer(), 0, data.getLength());
+    }
+
+    /**
+     * Sends a command and returns the body of the response without copying it. The returned
+     * buffer is a view of either the last APDU response or of a buffer shared by all commands
+     * sent by this application, and is only valid until the next command is sent.
+     *
+     * @return a ByteBuffer backed by an array, with its position and limit set around the body.
+     */
+    protected ByteBuffer sendForBuffer(int ins, int p1, int p2, byte[] data, int offset, int length) throws IOException, ApduException {
+        boolean sensitive = isSensitive((byte) ins);
+        boolean extended = extendedLength && length <= Apdus.MAX_EXTENDED_DATA_LENGTH;
+        int end = offset + length;
+        byte[] chunk = null;
+        while (!extended && end - offset > 0xff) {
+            if (chunk == null) {
+                chunk = new byte[0xff];
+            }
+            System.arraycopy(data, offset, chunk, 0, 0xff);
+            offset += 0xff;
+            byte[] resp = doSend(0x10, ins, p1, p2, chunk, sensitive, false);
+            short sw = ResponseAssembler.getSw(resp);
+            if (sw != SW_OK) {
+                throw new ApduException(Arrays.copyOf(resp, resp.length - 2), sw);
+            }
+        }
+        chunk = offset == 0 && end == data.length ? data : Arrays.copyOfRange(data, offset, end);
+        byte[] resp = doSend(0, ins, p1, p2, chunk, sensitive, extended);
+
+        ByteBuffer body;
+        short sw = ResponseAssembler.getSw(resp);
+        if ((byte) (sw >> 8) != SW1_MORE_DATA) {
+            body = ByteBuffer.wrap(resp, 0, resp.length - 2);
+        } else {
+            responseAssembler.reset();
+            sw = responseAssembler.append(resp);
+            while ((byte) (sw >> 8) == SW1_MORE_DATA) {
+                sw = responseAssembler.append(doSend(0, insSendRemaining, 0, 0, EMPTY, sensitive, extended));
+            }
+            body = responseAssembler.view();
+        }
+
+        if (sw != SW_OK) {
+            throw new ApduException(Arrays.copyOfRange(body.array(), 0, body.limit()), sw);
+        }
+        return body;
+    }
+
+    /**
+     * Sends a command without data, limiting the response to le bytes. The response must fit in
+     * a single APDU.
+     *
+     * @param le the maximum length of the response data, from 1 to 256.
+     */
+    protected byte[] sendWithLe(int ins, int p1, int p2, int le) throws IOException, ApduException {
+        byte[] resp = backend.sendWithLe((byte) 0, (byte) ins, (byte) p1, (byte) p2, le);
+        trace(AbstractApplication.tracer, (byte) 0, (byte) ins, (byte) p1, (byte) p2, EMPTY, resp, isSensitive((byte) ins));
+        return ApduException.getChecked(resp);
+    }
+
+    /**
+     * Creates a command for use with {@link #sendBatch(List)}. The data is copied, so the
+     * writer can be reused for the next command.
+     *
+     * @throws IllegalArgumentException if the data does not fit in a single APDU.
+     */
+    protected CommandApdu createCommand(int ins, int p1, int p2, TlvWriter data) {
+        return new CommandApdu((byte) 0, (byte) ins, (byte) p1, (byte) p2, data.toByteArray(), extendedLength);
+    }
+
+    /**
+     * Sends several independent commands back to back, holding the connection for the whole
+     * batch. Each command must fit in a single APDU, and so must each response except the last,
+     * since the YubiKey drops any remaining response data once it receives the next command.
+     *
+     * @param commands the commands to send.
+     * @return the response bodies, in the same order as the commands.
+     * @throws ApduException for the first command which failed, once all commands have been sent.
+     */
+    protected List<byte[]> sendBatch(List<CommandApdu> commands) throws IOException, ApduException {
+        short[] sws = new short[commands.size()];
+        List<byte[]> bodies = sendBatch(commands, sws);
+        for (int i = 0; i < sws.length; i++) {
+            if (sws[i] != SW_OK) {
+                throw new ApduException(bodies.get(i), sws[i]);
+            }
+        }
+        return bodies;
+    }
+
+    /**
+     * Sends several independent commands like {@link #sendBatch(List)}, without checking the
+     * status words of the responses.
+     *
+     * @param commands the commands to send.
+     * @param sws      an array which receives the status word of each response.
+     * @return the response bodies, in the same order as the commands.
+     */
+    protected List<byte[]> sendBatch(List<CommandApdu> commands, short[] sws) throws IOException {
+        ApduTracer tracer = AbstractApplication.tracer;
+        List<byte[]> responses = backend.sendBatch(commands);
+        if (responses.size() != commands.size()) {
+            throw new IOException("Wrong number of responses in batch");
+        }
+
+        List<byte[]> bodies = new ArrayList<>(responses.size());
+        for (int i = 0; i < responses.size(); i++) {
+            byte[] resp = responses.get(i);
+            CommandApdu command = commands.get(i);
+            boolean sensitive = isSensitive(command.ins);
+            trace(tracer, command.cla, command.ins, command.p1, command.p2, command.data, resp, sensitive);
+
+            short sw = ResponseAssembler.getSw(resp);
+            byte[] body;
+            if ((byte) (sw >> 8) != SW1_MORE_DATA) {
+                body = Arrays.copyOf(resp, resp.length - 2);
+            } else if (i != responses.size() - 1) {
+                throw new IOException("Response in batch did not fit in a single APDU");
+            } else {
+                responseAssembler.reset();
+                sw = responseAssembler.append(resp);
+                while ((byte) (sw >> 8) == SW1_MORE_DATA) {
+                    sw = responseAssembler.append(doSend(0, insSendRemaining, 0, 0, EMPTY, sensitive, command.extended));
+                }
+                ByteBuffer view = responseAssembler.view();
+                body = Arrays.copyOf(view.array(), view.limit());
+            }
+            sws[i] = sw;
+            bodies.add(body);
+        }
+        return bodies;
+    }
+}
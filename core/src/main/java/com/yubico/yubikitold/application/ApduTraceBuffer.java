@@ -0,0 +1,119 @@
+package com.yubico.yubikitold.application;
+
+/**
+ * An ApduTracer which keeps the last few command/response pairs in memory, to be dumped when
+ * something goes wrong. All storage is allocated up front, and data longer than the configured
+ * limit is truncated.
+ */
+public class ApduTraceBuffer implements ApduTracer {
+    private final Level level;
+    private final int maxDataLength;
+
+    private final byte[][] headers;
+    private final byte[][] commands;
+    private final int[] commandLengths;
+    private final boolean[] commandRedacted;
+    private final byte[][] responses;
+    private final int[] responseLengths;
+    private final boolean[] responseRedacted;
+    private final short[] sws;
+
+    private int next = 0;
+    private int count = 0;
+
+    /**
+     * Create a new buffer.
+     *
+     * @param capacity      the number of command/response pairs to keep.
+     * @param maxDataLength the maximum number of data bytes to keep for each command and response.
+     * @param level         the level to capture at.
+     */
+    public ApduTraceBuffer(int capacity, int maxDataLength, Level level) {
+        this.level = level;
+        this.maxDataLength = maxDataLength;
+        headers = new byte[capacity][4];
+        commands = new byte[capacity][maxDataLength];
+        commandLengths = new int[capacity];
+        commandRedacted = new boolean[capacity];
+        responses = new byte[capacity][maxDataLength];
+        responseLengths = new int[capacity];
+        responseRedacted = new boolean[capacity];
+        sws = new short[capacity];
+    }
+
+    public ApduTraceBuffer(int capacity, int maxDataLength) {
+        this(capacity, maxDataLength, Level.DATA);
+    }
+
+    @Override
+    public Level getLevel() {
+        return level;
+    }
+
+    @Override
+    public synchronized void onExchange(String application, byte cla, byte ins, byte p1, byte p2, byte[] command, int commandLength, byte[] response, int responseLength, short sw) {
+        byte[] header = headers[next];
+        header[0] = cla;
+        header[1] = ins;
+        header[2] = p1;
+        header[3] = p2;
+        commandLengths[next] = commandLength;
+        commandRedacted[next] = command == null;
+        if (command != null) {
+            System.arraycopy(command, 0, commands[next], 0, Math.min(commandLength, maxDataLength));
+        }
+        responseLengths[next] = responseLength;
+        responseRedacted[next] = response == null;
+        if (response != null) {
+            System.arraycopy(response, 0, responses[next], 0, Math.min(responseLength, maxDataLength));
+        }
+        sws[next] = sw;
+        next = (next + 1) % headers.length;
+        count = Math.min(count + 1, headers.length);
+    }
+
+    public synchronized void clear() {
+        next = 0;
+        count = 0;
+    }
+
+    /**
+     * Formats the captured APDUs, oldest first, one line per command and response.
+     *
+     * @param sb the StringBuilder to append to.
+     * @return the given StringBuilder.
+     */
+    public synchronized StringBuilder dump(StringBuilder sb) {
+        int capacity = headers.length;
+        for (int i = 0; i < count; i++) {
+            int index = (next - count + i + capacity) % capacity;
+            sb.append("> ");
+            Hex.append(sb, headers[index], 0, 4);
+            appendData(sb, commands[index], commandLengths[index], commandRedacted[index]);
+            sb.append("\n<");
+            appendData(sb, responses[index], responseLengths[index], responseRedacted[index]);
+            sb.append(' ');
+            Hex.append(sb, (byte) (sws[index] >> 8));
+            Hex.append(sb, (byte) sws[index]);
+            sb.append('\n');
+        }
+        return sb;
+    }
+
+    private void appendData(StringBuilder sb, byte[] data, int length, boolean redacted) {
+        sb.append(" [").append(length).append(']');
+        if (redacted) {
+            sb.append(" <redacted>");
+        } else if (length > 0) {
+            Hex.append(sb.append(' '), data, 0, Math.min(length, maxDataLength));
+            if (length > maxDataLength) {
+                sb.append("...");
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return dump(new StringBuilder()).toString();
+    }
+}
@@ -0,0 +1,34 @@
+package com.yubico.yubikitold.application;
+
+/**
+ * Receives the APDUs exchanged by applications, for logging and diagnostics.
+ * <p>
+ * The level is checked before each APDU, and nothing is copied or formatted for a tracer at
+ * {@link Level#OFF}. Data is only passed at {@link Level#DATA}, and never for commands and
+ * responses which the application considers sensitive (keys, OTPs). In that case the data is
+ * null, and only its length is given.
+ */
+public interface ApduTracer {
+    enum Level {
+        OFF, HEADERS, DATA
+    }
+
+    Level getLevel();
+
+    /**
+     * Called once the response to a command has been received, with both. Applications on
+     * different threads may call this concurrently.
+     *
+     * @param application    the simple class name of the application which sent the command.
+     * @param cla            the CLA byte.
+     * @param ins            the INS byte.
+     * @param p1             the P1 byte.
+     * @param p2             the P2 byte.
+     * @param command        the command data, or null if redacted.
+     * @param commandLength  the length of the command data.
+     * @param response       the response data, excluding the status word, or null if redacted.
+     * @param responseLength the length of the response data.
+     * @param sw             the status word.
+     */
+    void onExchange(String application, byte cla, byte ins, byte p1, byte p2, byte[] command, int commandLength, byte[] response, int responseLength, short sw);
+}
@@ -0,0 +1,31 @@
+package com.yubico.yubikitold.application;
+
+/**
+ * Lower case hex encoding, without intermediate allocations.
+ */
+public final class Hex {
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    private Hex() {
+    }
+
+    public static StringBuilder append(StringBuilder sb, byte value) {
+        return sb.append(DIGITS[(value >> 4) & 0xf]).append(DIGITS[value & 0xf]);
+    }
+
+    public static StringBuilder append(StringBuilder sb, byte[] data, int offset, int length) {
+        sb.ensureCapacity(sb.length() + 2 * length);
+        for (int i = offset; i < offset + length; i++) {
+            sb.append(DIGITS[(data[i] >> 4) & 0xf]).append(DIGITS[data[i] & 0xf]);
+        }
+        return sb;
+    }
+
+    public static String toString(byte[] data, int offset, int length) {
+        return append(new StringBuilder(2 * length), data, offset, length).toString();
+    }
+
+    public static String toString(byte[] data) {
+        return toString(data, 0, data.length);
+    }
+}
@@ -0,0 +1,58 @@
+package com.yubico.yubikitold.application;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Joins the data of a response split over several APDUs (SW1 = 0x61). The buffer grows as
+ * needed and is kept between responses, so a steady state of similar responses does not
+ * allocate.
+ */
+final class ResponseAssembler {
+    private byte[] buffer;
+    private int length;
+
+    ResponseAssembler(int initialCapacity) {
+        buffer = new byte[initialCapacity];
+    }
+
+    void reset() {
+        length = 0;
+    }
+
+    /**
+     * Appends the data of an APDU response.
+     *
+     * @param response an APDU response, ending with a status word.
+     * @return the status word of the response.
+     * @throws IOException if the response is too short to contain a status word.
+     */
+    short append(byte[] response) throws IOException {
+        int dataLength = response.length - 2;
+        short sw = getSw(response);
+        if (length + dataLength > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + dataLength));
+        }
+        System.arraycopy(response, 0, buffer, length, dataLength);
+        length += dataLength;
+        return sw;
+    }
+
+    /**
+     * Get the data assembled so far, as a view of the internal buffer. The view is only valid
+     * until the next call to {@link #reset()}.
+     *
+     * @return a ByteBuffer with its position and limit set around the data.
+     */
+    ByteBuffer view() {
+        return ByteBuffer.wrap(buffer, 0, length);
+    }
+
+    static short getSw(byte[] response) throws IOException {
+        if (response.length < 2) {
+            throw new IOException("Invalid APDU response, no status word");
+        }
+        return (short) (((response[response.length - 2] & 0xff) << 8) | (response[response.length - 1] & 0xff));
+    }
+}
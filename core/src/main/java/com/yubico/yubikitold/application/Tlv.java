@@ -1,9 +1,6 @@
 package com.yubico.yubikitold.application;
 
-import android.util.SparseArray;
-
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -56,18 +53,8 @@ public class Tlv {
     }
 
     public static Tlv of(byte tag, byte[] value) {
-        byte[] lengthBytes;
-        if (value.length < 0x80) {
-            lengthBytes = new byte[]{(byte) value.length};
-        } else if (value.length < 0xff) {
-            lengthBytes = new byte[]{(byte) 0x81, (byte) value.length};
-        } else if (value.length <= 0xffff) {
-            lengthBytes = new byte[]{(byte) 0x82, (byte) (value.length >> 8), (byte) value.length};
-        } else {
-            throw new IllegalArgumentException("Length of value is too large.");
-        }
-
-        return new Tlv(ByteBuffer.allocate(1 + lengthBytes.length + value.length).put((byte) tag).put(lengthBytes).put(value).array());
+        TlvWriter writer = new TlvWriter(TlvWriter.getEncodedSize(value.length));
+        return new Tlv(writer.put(tag, value).getBuffer());
     }
 
     public static byte[] unwrap(byte tag, byte[] data, int offset) throws IOException {
@@ -106,12 +93,8 @@ public class Tlv {
             return tlvs;
         }
 
-        public SparseArray<byte[]> toDict() {
-            SparseArray<byte[]> tlvs = new SparseArray<>();
-            for (Tlv tlv : toList()) {
-                tlvs.put(0xff & tlv.getTag(), tlv.getValue());
-            }
-            return tlvs;
+        public TlvTable toTable() throws IOException {
+            return new TlvTable().parse(data, offset, data.length);
         }
 
         public byte[] getBytes() {
@@ -151,19 +134,15 @@ public class Tlv {
         }
 
         public static Group of(Iterable<Tlv> tlvs) {
-            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            int size = 0;
             for (Tlv tlv : tlvs) {
-                buffer.put(tlv.getBytes());
+                size += tlv.end - tlv.offset;
             }
-            return new Group(Arrays.copyOf(buffer.array(), buffer.position()));
-        }
-
-        public static Group of(SparseArray<byte[]> tlvs) {
-            List<Tlv> list = new ArrayList<>();
-            for (int i = 0; i < tlvs.size(); i++) {
-                list.add(Tlv.of((byte) tlvs.keyAt(i), tlvs.valueAt(i)));
+            TlvWriter writer = new TlvWriter(size);
+            for (Tlv tlv : tlvs) {
+                writer.putBytes(tlv.data, tlv.offset, tlv.end - tlv.offset);
             }
-            return of(list);
+            return new Group(writer.getBuffer());
         }
     }
 
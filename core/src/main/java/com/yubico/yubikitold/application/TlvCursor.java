@@ -0,0 +1,180 @@
+package com.yubico.yubikitold.application;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Forward-only reader for a sequence of BER-TLV encoded elements.
+ * <p>
+ * Unlike {@link Tlv.Group#toList()}, the cursor does not create an object or copy the value for
+ * each element. It only tracks the tag, offset and length of the current element within the
+ * source buffer, which must not be modified while the cursor is in use.
+ */
+public final class TlvCursor {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[] data;
+    private final int start;
+    private final int end;
+
+    private int next;
+    private byte tag;
+    private int valueOffset;
+    private int length;
+
+    public TlvCursor(byte[] data, int offset, int end) {
+        if (offset < 0 || end > data.length || offset > end) {
+            throw new IndexOutOfBoundsException();
+        }
+        this.data = data;
+        this.start = offset;
+        this.end = end;
+        this.next = offset;
+    }
+
+    public TlvCursor(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    /**
+     * Create a cursor over the remaining bytes of an array-backed ByteBuffer.
+     */
+    public TlvCursor(ByteBuffer buffer) {
+        this(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.arrayOffset() + buffer.limit());
+    }
+
+    /**
+     * Advances the cursor to the next element.
+     *
+     * @return true if the cursor is positioned on a new element, false if the end of the data is reached.
+     * @throws IOException if the data is not valid TLV.
+     */
+    public boolean next() throws IOException {
+        if (next >= end) {
+            return false;
+        }
+        int pos = next;
+        if (end - pos < 2) {
+            throw new IOException("Truncated TLV header");
+        }
+        byte tag = data[pos++];
+        int length = 0xff & data[pos++];
+        if (length > 0x80) {
+            int nBytes = length - 0x80;
+            if (nBytes > 3 || end - pos < nBytes) {
+                throw new IOException("Invalid TLV length");
+            }
+            length = 0;
+            for (int i = 0; i < nBytes; i++) {
+                length = (length << 8) | (0xff & data[pos++]);
+            }
+        }
+        if (end - pos < length) {
+            throw new IOException("TLV value exceeds available data");
+        }
+        this.tag = tag;
+        this.valueOffset = pos;
+        this.length = length;
+        this.next = pos + length;
+        return true;
+    }
+
+    /**
+     * Advances the cursor to the next element and verifies its tag.
+     *
+     * @param tag the expected tag.
+     * @throws IOException if there are no more elements, or the next element has a different tag.
+     */
+    public void expect(byte tag) throws IOException {
+        if (!next()) {
+            throw new IOException(String.format("Missing TLV, expected tag: 0x%02x", tag));
+        }
+        if (this.tag != tag) {
+            throw new IOException(String.format("Unexpected tag! Expected: 0x%02x got: 0x%02x", tag, this.tag));
+        }
+    }
+
+    /**
+     * Moves the cursor back to before the first element.
+     */
+    public void rewind() {
+        next = start;
+        tag = 0;
+        valueOffset = 0;
+        length = 0;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public byte getTag() {
+        return tag;
+    }
+
+    public int getValueOffset() {
+        return valueOffset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Reads a single byte of the current value.
+     *
+     * @param index the index within the value.
+     * @return the byte at the given index.
+     */
+    public byte getByte(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException();
+        }
+        return data[valueOffset + index];
+    }
+
+    /**
+     * Decodes a part of the current value as an UTF-8 string.
+     *
+     * @param index the index within the value to start decoding from.
+     * @return the decoded string.
+     */
+    public String getString(int index) {
+        if (index < 0 || index > length) {
+            throw new IndexOutOfBoundsException();
+        }
+        return new String(data, valueOffset + index, length - index, UTF_8);
+    }
+
+    public String getString() {
+        return getString(0);
+    }
+
+    /**
+     * Compares the current value to a byte array without copying it.
+     *
+     * @param other the array to compare with.
+     * @return true if the current value has the same contents as other.
+     */
+    public boolean valueEquals(byte[] other) {
+        if (other == null || other.length != length) {
+            return false;
+        }
+        int diff = 0;
+        for (int i = 0; i < length; i++) {
+            diff |= other[i] ^ data[valueOffset + i];
+        }
+        return diff == 0;
+    }
+
+    /**
+     * Returns a copy of the current value. Only use this when the value needs to outlive the source buffer.
+     *
+     * @return a new array holding the value of the current element.
+     */
+    public byte[] getValue() {
+        return Arrays.copyOfRange(data, valueOffset, valueOffset + length);
+    }
+}
@@ -0,0 +1,125 @@
+package com.yubico.yubikitold.application;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Lookup table from tag to the offset and length of its value within a TLV encoded buffer.
+ * <p>
+ * Values are not copied, and the table can be re-populated with {@link #parse(byte[], int, int)}
+ * to avoid allocating for each response. The source buffer must not be modified while the table
+ * is in use. If a tag occurs more than once, the last occurrence is used.
+ */
+public final class TlvTable {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private byte[] data;
+    private byte[] tags = new byte[INITIAL_CAPACITY];
+    private int[] offsets = new int[INITIAL_CAPACITY];
+    private int[] lengths = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    public TlvTable() {
+    }
+
+    public TlvTable(byte[] data) throws IOException {
+        parse(data, 0, data.length);
+    }
+
+    /**
+     * Replaces the contents of the table with the TLVs in the given buffer.
+     *
+     * @return this table.
+     * @throws IOException if the data is not valid TLV.
+     */
+    public TlvTable parse(byte[] data, int offset, int end) throws IOException {
+        this.data = data;
+        size = 0;
+        TlvCursor cursor = new TlvCursor(data, offset, end);
+        while (cursor.next()) {
+            if (size == tags.length) {
+                tags = Arrays.copyOf(tags, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+            }
+            tags[size] = cursor.getTag();
+            offsets[size] = cursor.getValueOffset();
+            lengths[size] = cursor.getLength();
+            size++;
+        }
+        return this;
+    }
+
+    public TlvTable parse(byte[] data) throws IOException {
+        return parse(data, 0, data.length);
+    }
+
+    public TlvTable parse(ByteBuffer buffer) throws IOException {
+        return parse(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.arrayOffset() + buffer.limit());
+    }
+
+    private int indexOf(byte tag) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (tags[i] == tag) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public boolean contains(byte tag) {
+        return indexOf(tag) >= 0;
+    }
+
+    /**
+     * @return the offset of the value for the given tag within the source buffer, or -1 if the tag is missing.
+     */
+    public int getOffset(byte tag) {
+        int index = indexOf(tag);
+        return index >= 0 ? offsets[index] : -1;
+    }
+
+    /**
+     * @return the length of the value for the given tag, or -1 if the tag is missing.
+     */
+    public int getLength(byte tag) {
+        int index = indexOf(tag);
+        return index >= 0 ? lengths[index] : -1;
+    }
+
+    /**
+     * Compares the value for a tag to a byte array, without copying it.
+     *
+     * @return true if the tag is present and its value has the same contents as other.
+     */
+    public boolean valueEquals(byte tag, byte[] other) {
+        int index = indexOf(tag);
+        if (index < 0 || other == null || other.length != lengths[index]) {
+            return false;
+        }
+        int diff = 0;
+        for (int i = 0; i < other.length; i++) {
+            diff |= other[i] ^ data[offsets[index] + i];
+        }
+        return diff == 0;
+    }
+
+    /**
+     * Returns a copy of the value for a tag. Only use this when the value needs to outlive the source buffer.
+     *
+     * @return a new array holding the value, or null if the tag is missing.
+     */
+    public byte[] getValue(byte tag) {
+        int index = indexOf(tag);
+        return index >= 0 ? Arrays.copyOfRange(data, offsets[index], offsets[index] + lengths[index]) : null;
+    }
+}
@@ -0,0 +1,185 @@
+package com.yubico.yubikitold.application;
+
+import java.util.Arrays;
+
+/**
+ * Streaming writer for BER-TLV encoded data.
+ * <p>
+ * Values are written straight into a single growable buffer, which can be reused for several
+ * commands by calling {@link #reset()}. The buffer returned by {@link #getBuffer()} is only valid
+ * until the writer is modified.
+ */
+public final class TlvWriter {
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private byte[] buffer;
+    private int length = 0;
+
+    public TlvWriter(int initialCapacity) {
+        buffer = new byte[initialCapacity];
+    }
+
+    public TlvWriter() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Clears the written data, keeping the allocated buffer.
+     *
+     * @return this writer.
+     */
+    public TlvWriter reset() {
+        length = 0;
+        return this;
+    }
+
+    /**
+     * Writes a TLV with an empty value.
+     */
+    public TlvWriter put(byte tag) {
+        return putHeader(tag, 0);
+    }
+
+    public TlvWriter put(byte tag, byte[] value) {
+        return put(tag, value, 0, value.length);
+    }
+
+    public TlvWriter put(byte tag, byte[] value, int offset, int length) {
+        return putHeader(tag, length).putBytes(value, offset, length);
+    }
+
+    /**
+     * Writes a TLV with the UTF-8 encoding of a String as value, without creating an intermediate array.
+     */
+    public TlvWriter putUtf8(byte tag, String value) {
+        int valueLength = utf8Length(value);
+        putHeader(tag, valueLength);
+        ensureCapacity(valueLength);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[length++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[length++] = (byte) (0xc0 | (c >> 6));
+                buffer[length++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[length++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[length++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                buffer[length++] = '?';  // Unpaired surrogate, replaced like String.getBytes does.
+            } else {
+                buffer[length++] = (byte) (0xe0 | (c >> 12));
+                buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[length++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Writes the tag and length of a TLV. The caller is responsible for writing exactly valueLength bytes of value afterwards.
+     */
+    public TlvWriter putHeader(byte tag, int valueLength) {
+        if (valueLength < 0 || valueLength > 0xffff) {
+            throw new IllegalArgumentException("Length of value is too large.");
+        }
+        ensureCapacity(1 + getLengthSize(valueLength));
+        buffer[length++] = tag;
+        if (valueLength < 0x80) {
+            buffer[length++] = (byte) valueLength;
+        } else if (valueLength <= 0xff) {
+            buffer[length++] = (byte) 0x81;
+            buffer[length++] = (byte) valueLength;
+        } else {
+            buffer[length++] = (byte) 0x82;
+            buffer[length++] = (byte) (valueLength >> 8);
+            buffer[length++] = (byte) valueLength;
+        }
+        return this;
+    }
+
+    public TlvWriter putByte(byte value) {
+        ensureCapacity(1);
+        buffer[length++] = value;
+        return this;
+    }
+
+    public TlvWriter putInt(int value) {
+        ensureCapacity(4);
+        buffer[length++] = (byte) (value >> 24);
+        buffer[length++] = (byte) (value >> 16);
+        buffer[length++] = (byte) (value >> 8);
+        buffer[length++] = (byte) value;
+        return this;
+    }
+
+    public TlvWriter putBytes(byte[] value) {
+        return putBytes(value, 0, value.length);
+    }
+
+    public TlvWriter putBytes(byte[] value, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(value, offset, buffer, this.length, length);
+        this.length += length;
+        return this;
+    }
+
+    /**
+     * Get the internal buffer. Only the first {@link #getLength()} bytes are valid.
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    private void ensureCapacity(int additional) {
+        int required = length + additional;
+        if (required > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(required, buffer.length * 2));
+        }
+    }
+
+    /**
+     * Get the number of bytes needed to encode the given length.
+     */
+    public static int getLengthSize(int valueLength) {
+        return valueLength < 0x80 ? 1 : valueLength <= 0xff ? 2 : 3;
+    }
+
+    /**
+     * Get the total size of a TLV with a value of the given length.
+     */
+    public static int getEncodedSize(int valueLength) {
+        return 1 + getLengthSize(valueLength) + valueLength;
+    }
+
+    private static int utf8Length(String value) {
+        int count = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                count += 1;
+            } else if (c < 0x800) {
+                count += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                count += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                count += 1;
+            } else {
+                count += 3;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,90 @@
+package com.yubico.yubikitold.application.ndef;
+
+import com.yubico.yubikitold.application.AbstractApplication;
+import com.yubico.yubikitold.application.ApduException;
+import com.yubico.yubikitold.transport.Iso7816Connection;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Reads the NDEF message of a YubiKey as a Type 4 Tag (NFC Forum Type 4 Tag specification),
+ * over an ISO 7816 connection.
+ * <p>
+ * This lets the NDEF data be read on the same IsoDep connection used for OATH, instead of
+ * connecting with the Ndef tag technology first.
+ */
+public class NdefApplication extends AbstractApplication {
+    public static final byte[] AID = new byte[]{(byte) 0xd2, 0x76, 0x00, 0x00, (byte) 0x85, 0x01, 0x01};
+
+    private static final byte INS_SELECT = (byte) 0xa4;
+    private static final byte INS_READ_BINARY = (byte) 0xb0;
+    private static final byte[] CC_FILE_ID = new byte[]{(byte) 0xe1, 0x03};
+    private static final int CC_LENGTH = 15;  // Up to the end of the NDEF File Control TLV.
+    private static final int CC_MLE_OFFSET = 3;
+    private static final int CC_NDEF_TLV_OFFSET = 7;
+    private static final byte TAG_NDEF_FILE_CONTROL = 0x04;
+    private static final int MAX_SHORT_LE = 256;
+    private static final int NLEN_LENGTH = 2;
+
+    public NdefApplication(Iso7816Connection backend) {
+        super(backend, AID);
+    }
+
+    @Override
+    protected boolean isSensitive(byte ins) {
+        // The NDEF data holds an OTP.
+        return ins == INS_READ_BINARY;
+    }
+
+    /**
+     * Selects the applet and reads the NDEF message from the NDEF file given by the capability
+     * container. Every READ BINARY stays within the file, as tags reject reads past its end.
+     *
+     * @return the NDEF message, or null if the file is empty.
+     */
+    public byte[] readNdefMessage() throws IOException, ApduException {
+        select();
+        send(INS_SELECT, 0x00, 0x0c, CC_FILE_ID);
+        byte[] cc = sendWithLe(INS_READ_BINARY, 0, 0, CC_LENGTH);
+        if (cc.length != CC_LENGTH || cc[CC_NDEF_TLV_OFFSET] != TAG_NDEF_FILE_CONTROL) {
+            throw new IOException("Invalid capability container");
+        }
+        int maxRead = Math.min(MAX_SHORT_LE, getShort(cc, CC_MLE_OFFSET));
+        if (maxRead < NLEN_LENGTH) {
+            throw new IOException("Invalid capability container");
+        }
+        byte[] fileId = Arrays.copyOfRange(cc, CC_NDEF_TLV_OFFSET + 2, CC_NDEF_TLV_OFFSET + 4);
+        int maxFileSize = getShort(cc, CC_NDEF_TLV_OFFSET + 4);
+
+        send(INS_SELECT, 0x00, 0x0c, fileId);
+        byte[] nlen = sendWithLe(INS_READ_BINARY, 0, 0, NLEN_LENGTH);
+        if (nlen.length != NLEN_LENGTH) {
+            throw new IOException("Invalid NDEF file");
+        }
+        int length = getShort(nlen, 0);
+        if (length == 0) {
+            return null;
+        } else if (length > maxFileSize - NLEN_LENGTH) {
+            throw new IOException("Invalid NDEF file");
+        }
+
+        byte[] message = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int offset = NLEN_LENGTH + read;
+            byte[] data = sendWithLe(INS_READ_BINARY, offset >> 8, offset & 0xff, Math.min(maxRead, length - read));
+            if (data.length == 0) {
+                throw new IOException("Incomplete NDEF message");
+            }
+            int chunk = Math.min(length - read, data.length);
+            System.arraycopy(data, 0, message, read, chunk);
+            read += chunk;
+        }
+        return message;
+    }
+
+    private static int getShort(byte[] data, int offset) {
+        return (data[offset] & 0xff) << 8 | (data[offset + 1] & 0xff);
+    }
+}
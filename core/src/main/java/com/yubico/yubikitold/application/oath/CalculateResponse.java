@@ -0,0 +1,92 @@
+package com.yubico.yubikitold.application.oath;
+
+import com.yubico.yubikitold.application.TlvCursor;
+
+import java.util.Arrays;
+
+public class CalculateResponse {
+    public static final byte TYPE_FULL = 0x75;
+    public static final byte TYPE_TRUNCATED = 0x76;
+    public static final byte TYPE_HOTP = 0x77;
+    public static final byte TYPE_TOUCH = 0x7c;
+
+    private static final String STEAM_CHARS = "23456789BCDFGHJKMNPQRTVWXY";
+
+    public final String name;
+    public final byte responseType;
+    public final int digits;
+
+    // The response is kept as a slice of the APDU response it was parsed from.
+    private final byte[] data;
+    private final int responseOffset;
+    private final int responseLength;
+
+    CalculateResponse(String name, TlvCursor response) {
+        this.name = name;
+        this.responseType = response.getTag();
+        this.digits = response.getByte(0);
+        this.data = response.getData();
+        this.responseOffset = response.getValueOffset() + 1;
+        this.responseLength = response.getLength() - 1;
+    }
+
+    public int getResponseLength() {
+        return responseLength;
+    }
+
+    public byte getResponseByte(int index) {
+        if (index < 0 || index >= responseLength) {
+            throw new IndexOutOfBoundsException();
+        }
+        return data[responseOffset + index];
+    }
+
+    /**
+     * Reads 4 bytes of the response as a big-endian int.
+     *
+     * @param index the index within the response to read from.
+     * @return the int value.
+     */
+    public int getResponseInt(int index) {
+        if (index < 0 || index + 4 > responseLength) {
+            throw new IndexOutOfBoundsException();
+        }
+        int offset = responseOffset + index;
+        return (data[offset] & 0xff) << 24 | (data[offset + 1] & 0xff) << 16 | (data[offset + 2] & 0xff) << 8 | (data[offset + 3] & 0xff);
+    }
+
+    public byte[] getResponse() {
+        return Arrays.copyOfRange(data, responseOffset, responseOffset + responseLength);
+    }
+
+    /**
+     * Formats a truncated response as a numeric code, zero-padded to the number of digits.
+     *
+     * @return the code.
+     */
+    public String formatTruncated() {
+        int value = 0x7fffffff & getResponseInt(0);
+        char[] code = new char[digits];
+        for (int i = digits - 1; i >= 0; i--) {
+            code[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return new String(code);
+    }
+
+    /**
+     * Formats a full response as a 5 character Steam Guard code.
+     *
+     * @return the code.
+     */
+    public String formatSteam() {
+        int offset = 0xf & getResponseByte(responseLength - 1);
+        int value = 0x7fffffff & getResponseInt(offset);
+        char[] code = new char[5];
+        for (int i = 0; i < code.length; i++) {
+            code[i] = STEAM_CHARS.charAt(value % STEAM_CHARS.length());
+            value /= STEAM_CHARS.length();
+        }
+        return new String(code);
+    }
+}
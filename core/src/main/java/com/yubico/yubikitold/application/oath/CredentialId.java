@@ -0,0 +1,54 @@
+package com.yubico.yubikitold.application.oath;
+
+/**
+ * The parts of a credential name as stored on the YubiKey: [period/][issuer:]name.
+ */
+public final class CredentialId {
+    public static final int DEFAULT_PERIOD = 30;
+
+    public final int period;
+    public final String issuer;
+    public final String name;
+
+    private CredentialId(int period, String issuer, String name) {
+        this.period = period;
+        this.issuer = issuer;
+        this.name = name;
+    }
+
+    /**
+     * Splits a stored credential name into its parts.
+     *
+     * @param key the name of the credential, as stored on the YubiKey.
+     * @return the parsed parts. The period defaults to 30 and the issuer is null if not present.
+     */
+    public static CredentialId parse(String key) {
+        int start = 0;
+        int period = DEFAULT_PERIOD;
+
+        int slash = key.indexOf('/');
+        if (slash > 0 && isDigits(key, slash)) {
+            period = Integer.parseInt(key.substring(0, slash));
+            start = slash + 1;
+        }
+
+        String issuer = null;
+        int colon = key.indexOf(':', start);
+        if (colon >= 0) {
+            issuer = key.substring(start, colon);
+            start = colon + 1;
+        }
+
+        return new CredentialId(period, issuer, key.substring(start));
+    }
+
+    private static boolean isDigits(String value, int end) {
+        for (int i = 0; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,16 @@
+package com.yubico.yubikitold.application.oath;
+
+import com.yubico.yubikitold.application.TlvCursor;
+
+public class ListResponse {
+    public final String name;
+    public final OathType oathType;
+    public final HashAlgorithm hashAlgorithm;
+
+    ListResponse(TlvCursor response) {
+        byte typeAndAlgorithm = response.getByte(0);
+        this.name = response.getString(1);
+        this.oathType = OathType.fromValue((byte) (0xf0 & typeAndAlgorithm));
+        this.hashAlgorithm = HashAlgorithm.fromValue((byte) (0x0f & typeAndAlgorithm));
+    }
+}
@@ -0,0 +1,294 @@
+package com.yubico.yubikitold.application.oath;
+
+import com.yubico.yubikitold.application.AbstractApplication;
+import com.yubico.yubikitold.application.ApduException;
+import com.yubico.yubikitold.application.TlvCursor;
+import com.yubico.yubikitold.application.TlvTable;
+import com.yubico.yubikitold.application.TlvWriter;
+import com.yubico.yubikitold.application.Version;
+import com.yubico.yubikitold.transport.CommandApdu;
+import com.yubico.yubikitold.transport.Iso7816Connection;
+
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+public class OathApplication extends AbstractApplication {
+    public static final byte[] AID = new byte[]{(byte) 0xa0, 0x00, 0x00, 0x05, 0x27, 0x21, 0x01, 0x01};
+
+    public static final short SW_WRONG_DATA = 0x6a80;
+    public static final short SW_FILE_NOT_FOUND = 0x6a82;
+    public static final short SW_FILE_FULL = 0x6a84;
+    public static final short SW_AUTH_REQUIRED = 0x6982;
+    public static final short SW_DATA_INVALID = 0x6984;
+
+    private static final byte INS_PUT = 0x01;
+    private static final byte INS_DELETE = 0x02;
+    private static final byte INS_SET_CODE = 0x03;
+    private static final byte INS_RESET = 0x04;
+
+    private static final byte INS_LIST = (byte) 0xa1;
+    private static final byte INS_CALCULATE = (byte) 0xa2;
+    private static final byte INS_VALIDATE = (byte) 0xa3;
+    private static final byte INS_CALCULATE_ALL = (byte) 0xa4;
+
+    private static final byte TAG_NAME = 0x71;
+    private static final byte TAG_KEY = 0x73;
+    private static final byte TAG_CHALLENGE = 0x74;
+    private static final byte TAG_RESPONSE = 0x75;
+    private static final byte TAG_PROPERTY = 0x78;
+    private static final byte TAG_VERSION = 0x79;
+    private static final byte TAG_IMF = 0x7a;
+
+    private static final byte PROPERTY_REQUIRE_TOUCH = 0x02;
+
+    private final TlvTable responseTable = new TlvTable();
+
+    private Version version;
+    private byte[] deviceId;
+    private byte[] challenge;
+
+    public OathApplication(Iso7816Connection backend) {
+        super(backend, AID, (byte) 0xa5);
+    }
+
+    @Override
+    protected boolean isSensitive(byte ins) {
+        switch (ins) {
+            case INS_PUT:
+            case INS_SET_CODE:
+            case INS_CALCULATE:
+            case INS_VALIDATE:
+            case INS_CALCULATE_ALL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public byte[] select() throws IOException, ApduException {
+        byte[] response = super.select();
+        TlvTable data = responseTable.parse(response);
+        if (data.getLength(TAG_VERSION) != 3) {
+            throw new IOException("Invalid SELECT response");
+        }
+        version = Version.parse(response, data.getOffset(TAG_VERSION));
+        deviceId = data.getValue(TAG_NAME);
+        challenge = data.getValue(TAG_CHALLENGE);
+        setExtendedLength(version.isAtLeast(4, 0, 0));
+
+        return response;
+    }
+
+    public byte[] getDeviceId() {
+        return Arrays.copyOf(deviceId, deviceId.length);
+    }
+
+    public Version getVersion() {
+        return version;
+    }
+
+    public boolean isLocked() {
+        return challenge != null;
+    }
+
+    public void unlock(ChallengeSigner signer) throws IOException, ApduException {
+        byte[] response = signer.sign(challenge);
+        byte[] myChallenge = new byte[8];
+        SecureRandom random = new SecureRandom();
+        random.nextBytes(myChallenge);
+        byte[] myResponse = signer.sign(myChallenge);
+
+        TlvTable resp = responseTable.parse(sendForBuffer(INS_VALIDATE, 0, 0, beginCommand()
+                .put(TAG_RESPONSE, response)
+                .put(TAG_CHALLENGE, myChallenge)
+        ));
+
+        if (!resp.valueEquals(TAG_RESPONSE, myResponse)) {
+            throw new IOException("Invalid response");
+        }
+
+        challenge = null;
+    }
+
+    public void reset() throws IOException, ApduException {
+        send(INS_RESET, 0xde, 0xad, new byte[0]);
+    }
+
+    public void setLockCode(byte[] secret) throws IOException, ApduException {
+        byte[] challenge = new byte[8];
+        SecureRandom random = new SecureRandom();
+        random.nextBytes(challenge);
+
+        byte[] response;
+        try {
+            Mac mac = Mac.getInstance("HmacSHA1");
+            mac.init(new SecretKeySpec(secret, mac.getAlgorithm()));
+            mac.update(challenge);
+            response = mac.doFinal();
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException(e);
+        }
+
+        send(INS_SET_CODE, 0, 0, beginCommand()
+                .putHeader(TAG_KEY, 1 + secret.length).putByte((byte) (OathType.TOTP.value | HashAlgorithm.SHA1.value)).putBytes(secret)
+                .put(TAG_CHALLENGE, challenge)
+                .put(TAG_RESPONSE, response)
+        );
+    }
+
+    public void unsetLockCode() throws IOException, ApduException {
+        send(INS_SET_CODE, 0, 0, beginCommand().put(TAG_KEY));
+    }
+
+    public void putCredential(String name, byte[] key, OathType oathType, HashAlgorithm hashAlgorithm, int digits, int imf, boolean touch) throws IOException, ApduException {
+        send(INS_PUT, 0, 0, writePut(name, key, oathType, hashAlgorithm, digits, imf, touch));
+    }
+
+    /**
+     * Creates a PUT command for use with {@link #putCredentials(List)}. Takes the same arguments as
+     * {@link #putCredential(String, byte[], OathType, HashAlgorithm, int, int, boolean)}.
+     */
+    public CommandApdu createPutCommand(String name, byte[] key, OathType oathType, HashAlgorithm hashAlgorithm, int digits, int imf, boolean touch) {
+        return createCommand(INS_PUT, 0, 0, writePut(name, key, oathType, hashAlgorithm, digits, imf, touch));
+    }
+
+    /**
+     * Stores several credentials, sent as a single batch.
+     *
+     * @param puts commands created by {@link #createPutCommand}.
+     * @return the status word for each command, in order. 0x9000 means the credential was stored.
+     */
+    public short[] putCredentials(List<CommandApdu> puts) throws IOException {
+        for (CommandApdu put : puts) {
+            if (put.ins != INS_PUT) {
+                throw new IllegalArgumentException("Not a PUT command");
+            }
+        }
+        short[] sws = new short[puts.size()];
+        sendBatch(puts, sws);
+        return sws;
+    }
+
+    private TlvWriter writePut(String name, byte[] key, OathType oathType, HashAlgorithm hashAlgorithm, int digits, int imf, boolean touch) {
+        if (touch && version.major < 4) {
+            throw new IllegalArgumentException("Require touch requires YubiKey 4 or later");
+        }
+
+        try {
+            key = hashAlgorithm.prepareKey(key);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        TlvWriter data = beginCommand()
+                .putUtf8(TAG_NAME, name)
+                .putHeader(TAG_KEY, 2 + key.length).putByte((byte) (oathType.value | hashAlgorithm.value)).putByte((byte) digits).putBytes(key);
+
+        if (touch) {
+            data.putByte(TAG_PROPERTY).putByte(PROPERTY_REQUIRE_TOUCH);
+        }
+        if (oathType == OathType.HOTP && imf > 0) {
+            data.putHeader(TAG_IMF, 4).putInt(imf);
+        }
+        return data;
+    }
+
+    public void deleteCredential(String name) throws IOException, ApduException {
+        send(INS_DELETE, 0, 0, beginCommand().putUtf8(TAG_NAME, name));
+    }
+
+    public CalculateResponse calculate(String name, byte[] challenge, boolean truncate) throws IOException, ApduException {
+        TlvCursor response = new TlvCursor(send(INS_CALCULATE, 0, truncate ? 1 : 0, beginCommand()
+                .putUtf8(TAG_NAME, name)
+                .put(TAG_CHALLENGE, challenge)
+        ));
+        if (!response.next()) {
+            throw new IOException("Empty CALCULATE response");
+        }
+        return new CalculateResponse(name, response);
+    }
+
+    /**
+     * Calculates several credentials with the same challenge, sent as a single batch.
+     *
+     * @param names     the names of the credentials to calculate.
+     * @param challenge the challenge to use for all credentials.
+     * @param truncate  whether to return truncated responses.
+     * @return the responses, in the same order as the names.
+     */
+    public List<CalculateResponse> calculate(List<String> names, byte[] challenge, boolean truncate) throws IOException, ApduException {
+        List<CommandApdu> commands = new ArrayList<>(names.size());
+        for (String name : names) {
+            commands.add(createCommand(INS_CALCULATE, 0, truncate ? 1 : 0, beginCommand()
+                    .putUtf8(TAG_NAME, name)
+                    .put(TAG_CHALLENGE, challenge)
+            ));
+        }
+        List<byte[]> responses = sendBatch(commands);
+        List<CalculateResponse> result = new ArrayList<>(names.size());
+        for (int i = 0; i < names.size(); i++) {
+            TlvCursor response = new TlvCursor(responses.get(i));
+            if (!response.next()) {
+                throw new IOException("Empty CALCULATE response");
+            }
+            result.add(new CalculateResponse(names.get(i), response));
+        }
+        return result;
+    }
+
+    public List<CalculateResponse> calculateAll(byte[] challenge) throws IOException, ApduException {
+        // The responses keep slices of the data, so it must be copied out of the shared buffer.
+        TlvCursor response = new TlvCursor(send(INS_CALCULATE_ALL, 0, 1, beginCommand().put(TAG_CHALLENGE, challenge)));
+        List<CalculateResponse> result = new ArrayList<>();
+        while (response.next()) {
+            String name = response.getString();
+            if (!response.next()) {
+                throw new IOException("Missing response for credential: " + name);
+            }
+            result.add(new CalculateResponse(name, response));
+        }
+
+        return result;
+    }
+
+    public List<ListResponse> listCredentials() throws IOException, ApduException {
+        TlvCursor response = new TlvCursor(sendForBuffer(INS_LIST, 0, 0));
+        List<ListResponse> result = new ArrayList<>();
+        while (response.next()) {
+            result.add(new ListResponse(response));
+        }
+        return result;
+    }
+
+    public static byte[] calculateKey(byte[] deviceId, String password) {
+        if (password.isEmpty()) {
+            return new byte[0];
+        }
+        SecretKeyFactory factory;
+        PBEKeySpec keyspec = null;
+        try {
+            factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+            keyspec = new PBEKeySpec(password.toCharArray(), deviceId, 1000, 128);
+            return factory.generateSecret(keyspec).getEncoded();
+        } catch (InvalidKeySpecException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            if (keyspec != null) {
+                keyspec.clearPassword();
+            }
+        }
+    }
+
+}
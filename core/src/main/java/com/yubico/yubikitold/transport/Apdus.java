@@ -0,0 +1,95 @@
+package com.yubico.yubikitold.transport;
+
+/**
+ * Encoding of command APDUs, as sent by Iso7816Connection implementations.
+ */
+public final class Apdus {
+    public static final int MAX_SHORT_DATA_LENGTH = 0xff;
+    public static final int MAX_EXTENDED_DATA_LENGTH = 0xffff;
+
+    private Apdus() {
+    }
+
+    /**
+     * Encodes a short APDU: CLA INS P1 P2 Lc data, with Le omitted.
+     */
+    public static byte[] encodeShort(byte cla, byte ins, byte p1, byte p2, byte[] data) {
+        byte[] apdu = new byte[getEncodedLength(data.length, false)];
+        encode(cla, ins, p1, p2, data, false, apdu, 0);
+        return apdu;
+    }
+
+    /**
+     * Encodes a short APDU without data, limiting the response to le bytes: CLA INS P1 P2 Le.
+     *
+     * @param le the maximum length of the response data, from 1 to 256.
+     */
+    public static byte[] encodeShortWithLe(byte cla, byte ins, byte p1, byte p2, int le) {
+        if (le < 1 || le > 256) {
+            throw new IllegalArgumentException("Le out of range for short APDU");
+        }
+        return new byte[]{cla, ins, p1, p2, (byte) le};
+    }
+
+    /**
+     * Encodes an extended length APDU: CLA INS P1 P2 00 Lc(2) data Le(2), with Le set to accept
+     * up to 65536 bytes. If there is no data, Lc is omitted: CLA INS P1 P2 00 Le(2).
+     */
+    public static byte[] encodeExtended(byte cla, byte ins, byte p1, byte p2, byte[] data) {
+        byte[] apdu = new byte[getEncodedLength(data.length, true)];
+        encode(cla, ins, p1, p2, data, true, apdu, 0);
+        return apdu;
+    }
+
+    /**
+     * Encodes a command as either a short or an extended length APDU, as given by the command.
+     */
+    public static byte[] encode(CommandApdu command) {
+        return command.extended
+                ? encodeExtended(command.cla, command.ins, command.p1, command.p2, command.data)
+                : encodeShort(command.cla, command.ins, command.p1, command.p2, command.data);
+    }
+
+    /**
+     * The length of an encoded APDU with the given length of data.
+     */
+    public static int getEncodedLength(int dataLength, boolean extended) {
+        if (dataLength > (extended ? MAX_EXTENDED_DATA_LENGTH : MAX_SHORT_DATA_LENGTH)) {
+            throw new IllegalArgumentException(extended ? "Data too long for extended length APDU" : "Data too long for short APDU");
+        }
+        if (extended) {
+            return 7 + (dataLength > 0 ? 2 : 0) + dataLength;
+        }
+        return 5 + dataLength;
+    }
+
+    /**
+     * Encodes an APDU into an existing buffer, as {@link #encodeShort} or {@link #encodeExtended}.
+     *
+     * @return the number of bytes written.
+     */
+    public static int encode(byte cla, byte ins, byte p1, byte p2, byte[] data, boolean extended, byte[] buffer, int offset) {
+        int length = getEncodedLength(data.length, extended);
+        buffer[offset] = cla;
+        buffer[offset + 1] = ins;
+        buffer[offset + 2] = p1;
+        buffer[offset + 3] = p2;
+        if (extended) {
+            buffer[offset + 4] = 0;
+            int dataOffset = offset + 5;
+            if (data.length > 0) {
+                buffer[offset + 5] = (byte) (data.length >> 8);
+                buffer[offset + 6] = (byte) data.length;
+                dataOffset = offset + 7;
+                System.arraycopy(data, 0, buffer, dataOffset, data.length);
+            }
+            // Le = 00 00 (65536).
+            buffer[dataOffset + data.length] = 0;
+            buffer[dataOffset + data.length + 1] = 0;
+        } else {
+            buffer[offset + 4] = (byte) data.length;
+            System.arraycopy(data, 0, buffer, offset + 5, data.length);
+        }
+        return length;
+    }
+}
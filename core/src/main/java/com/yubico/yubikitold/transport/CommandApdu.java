@@ -0,0 +1,32 @@
+package com.yubico.yubikitold.transport;
+
+/**
+ * A single command APDU, for use with {@link Iso7816Connection#sendBatch(java.util.List)}.
+ */
+public final class CommandApdu {
+    public final byte cla;
+    public final byte ins;
+    public final byte p1;
+    public final byte p2;
+    public final byte[] data;
+    public final boolean extended;
+
+    /**
+     * @param extended whether to send the command as an extended length APDU.
+     */
+    public CommandApdu(byte cla, byte ins, byte p1, byte p2, byte[] data, boolean extended) {
+        if (data.length > (extended ? Apdus.MAX_EXTENDED_DATA_LENGTH : Apdus.MAX_SHORT_DATA_LENGTH)) {
+            throw new IllegalArgumentException("Data too long for a single APDU");
+        }
+        this.cla = cla;
+        this.ins = ins;
+        this.p1 = p1;
+        this.p2 = p2;
+        this.data = data;
+        this.extended = extended;
+    }
+
+    public CommandApdu(byte cla, byte ins, byte p1, byte p2, byte[] data) {
+        this(cla, ins, p1, p2, data, false);
+    }
+}
@@ -0,0 +1,57 @@
+package com.yubico.yubikitold.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public interface Iso7816Connection extends Closeable {
+    byte[] send(byte cla, byte ins, byte p1, byte p2, byte[] data) throws IOException;
+
+    /**
+     * Sends a short APDU without data, limiting the response to le bytes: CLA INS P1 P2 Le.
+     * Commands such as READ BINARY fail instead of returning less data when Le reaches past the
+     * end of a file. Connections which don't override this send Le = 00, as {@link #send} does
+     * for commands without data.
+     *
+     * @param le the maximum length of the response data, from 1 to 256.
+     */
+    default byte[] sendWithLe(byte cla, byte ins, byte p1, byte p2, int le) throws IOException {
+        return send(cla, ins, p1, p2, new byte[0]);
+    }
+
+    /**
+     * Whether both the transport and reader support extended length APDUs.
+     *
+     * @return true if {@link #sendExtended} may be used.
+     */
+    default boolean isExtendedLengthSupported() {
+        return false;
+    }
+
+    /**
+     * Sends a command as an extended length APDU, allowing up to 65535 bytes of data in the
+     * command and up to 65536 bytes in the response.
+     */
+    default byte[] sendExtended(byte cla, byte ins, byte p1, byte p2, byte[] data) throws IOException {
+        throw new UnsupportedOperationException("Extended length APDUs are not supported");
+    }
+
+    /**
+     * Sends several independent commands back to back, on the calling thread. Implementations
+     * should hold the connection for the whole batch, so that no other command is sent in
+     * between. Responses are returned as received, and status words are not checked.
+     *
+     * @param commands the commands to send, in order.
+     * @return the responses, one per command, in the same order.
+     */
+    default List<byte[]> sendBatch(List<CommandApdu> commands) throws IOException {
+        List<byte[]> responses = new ArrayList<>(commands.size());
+        for (CommandApdu command : commands) {
+            responses.add(command.extended
+                    ? sendExtended(command.cla, command.ins, command.p1, command.p2, command.data)
+                    : send(command.cla, command.ins, command.p1, command.p2, command.data));
+        }
+        return responses;
+    }
+}
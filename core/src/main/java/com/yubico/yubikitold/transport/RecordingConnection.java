@@ -0,0 +1,128 @@
+package com.yubico.yubikitold.transport;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Wraps a connection and records each exchange, with its timing, to a stream that can be served
+ * back by {@link ReplayConnection}.
+ * <p>
+ * The format is a header of the magic bytes "APDR", a version byte and a flags byte, followed by
+ * one record per exchange:
+ * <pre>
+ * flags(1) gap_us(4) duration_us(4) CLA INS P1 P2 Lc(2) [data] Lr(4) response
+ * </pre>
+ * The gap is the time since the end of the previous exchange, and the duration the time spent in
+ * the wrapped connection. By default command data is redacted: only its length is stored, as it
+ * may contain credential secrets. Responses are always stored, since they are needed for replay.
+ */
+public class RecordingConnection implements Iso7816Connection {
+    static final int MAGIC = 0x41504452;  // "APDR"
+    static final byte VERSION = 1;
+    static final byte HEADER_EXTENDED_SUPPORTED = 0x01;
+    static final byte RECORD_EXTENDED = 0x01;
+    static final byte RECORD_HAS_DATA = 0x02;
+
+    private final Iso7816Connection delegate;
+    private final DataOutputStream out;
+    private final boolean redactCommands;
+    private long lastEnd;
+
+    /**
+     * @param redactCommands whether to leave out command data, storing only its length.
+     */
+    public RecordingConnection(Iso7816Connection delegate, OutputStream out, boolean redactCommands) throws IOException {
+        this.delegate = delegate;
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.redactCommands = redactCommands;
+        this.out.writeInt(MAGIC);
+        this.out.writeByte(VERSION);
+        this.out.writeByte(delegate.isExtendedLengthSupported() ? HEADER_EXTENDED_SUPPORTED : 0);
+        lastEnd = System.nanoTime();
+    }
+
+    public RecordingConnection(Iso7816Connection delegate, OutputStream out) throws IOException {
+        this(delegate, out, true);
+    }
+
+    @Override
+    public boolean isExtendedLengthSupported() {
+        return delegate.isExtendedLengthSupported();
+    }
+
+    @Override
+    public byte[] send(byte cla, byte ins, byte p1, byte p2, byte[] data) throws IOException {
+        long start = System.nanoTime();
+        byte[] response = delegate.send(cla, ins, p1, p2, data);
+        record(new CommandApdu(cla, ins, p1, p2, data, false), response, start, System.nanoTime());
+        return response;
+    }
+
+    @Override
+    public byte[] sendWithLe(byte cla, byte ins, byte p1, byte p2, int le) throws IOException {
+        long start = System.nanoTime();
+        byte[] response = delegate.sendWithLe(cla, ins, p1, p2, le);
+        record(new CommandApdu(cla, ins, p1, p2, new byte[0], false), response, start, System.nanoTime());
+        return response;
+    }
+
+    @Override
+    public byte[] sendExtended(byte cla, byte ins, byte p1, byte p2, byte[] data) throws IOException {
+        long start = System.nanoTime();
+        byte[] response = delegate.sendExtended(cla, ins, p1, p2, data);
+        record(new CommandApdu(cla, ins, p1, p2, data, true), response, start, System.nanoTime());
+        return response;
+    }
+
+    /**
+     * Sends the batch through the wrapped connection, keeping its batching. The time of the whole
+     * batch is split evenly between its exchanges.
+     */
+    @Override
+    public List<byte[]> sendBatch(List<CommandApdu> commands) throws IOException {
+        long start = System.nanoTime();
+        List<byte[]> responses = delegate.sendBatch(commands);
+        long end = System.nanoTime();
+        int count = commands.size();
+        for (int i = 0; i < count; i++) {
+            record(commands.get(i), responses.get(i), start + (end - start) * i / count, start + (end - start) * (i + 1) / count);
+        }
+        return responses;
+    }
+
+    private synchronized void record(CommandApdu command, byte[] response, long start, long end) throws IOException {
+        boolean hasData = !redactCommands && command.data.length > 0;
+        out.writeByte((command.extended ? RECORD_EXTENDED : 0) | (hasData ? RECORD_HAS_DATA : 0));
+        out.writeInt(toMicros(start - lastEnd));
+        out.writeInt(toMicros(end - start));
+        out.writeByte(command.cla);
+        out.writeByte(command.ins);
+        out.writeByte(command.p1);
+        out.writeByte(command.p2);
+        out.writeShort(command.data.length);
+        if (hasData) {
+            out.write(command.data);
+        }
+        out.writeInt(response.length);
+        out.write(response);
+        // Flushed per exchange, so that a recording is complete even if close is never called.
+        out.flush();
+        lastEnd = end;
+    }
+
+    private static int toMicros(long nanos) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, nanos / 1000));
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            delegate.close();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.yubico.yubikitold.transport;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves back a session recorded by {@link RecordingConnection}.
+ * <p>
+ * Responses are returned in the recorded order. Each command must match the recorded CLA, INS, P1,
+ * P2 and data length, and the recorded data if it was stored, otherwise an IOException is thrown.
+ * Each exchange takes its recorded duration multiplied by the time scale, so 0 replays as fast as
+ * possible and 1 with the original timing.
+ * <p>
+ * Sessions which unlock a password protected key can't be replayed past VALIDATE, as the host
+ * challenge is random and the recorded response won't match it.
+ */
+public class ReplayConnection implements Iso7816Connection {
+    private static final class Exchange {
+        final CommandApdu command;
+        final boolean hasData;
+        final long durationNanos;
+        final byte[] response;
+
+        Exchange(CommandApdu command, boolean hasData, long durationNanos, byte[] response) {
+            this.command = command;
+            this.hasData = hasData;
+            this.durationNanos = durationNanos;
+            this.response = response;
+        }
+    }
+
+    private final List<Exchange> exchanges;
+    private final boolean extendedLengthSupported;
+    private final double timeScale;
+    private int position = 0;
+
+    public ReplayConnection(InputStream in, double timeScale) throws IOException {
+        this.timeScale = timeScale;
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != RecordingConnection.MAGIC) {
+            throw new IOException("Not an APDU recording");
+        }
+        if (data.readByte() != RecordingConnection.VERSION) {
+            throw new IOException("Unsupported recording version");
+        }
+        extendedLengthSupported = (data.readByte() & RecordingConnection.HEADER_EXTENDED_SUPPORTED) != 0;
+
+        exchanges = new ArrayList<>();
+        int flags;
+        while ((flags = data.read()) != -1) {
+            data.readInt();  // Gap since the previous exchange, spent on the host.
+            long durationNanos = TimeUnit.MICROSECONDS.toNanos(data.readInt());
+            byte cla = data.readByte();
+            byte ins = data.readByte();
+            byte p1 = data.readByte();
+            byte p2 = data.readByte();
+            byte[] commandData = new byte[data.readUnsignedShort()];
+            boolean hasData = (flags & RecordingConnection.RECORD_HAS_DATA) != 0;
+            if (hasData) {
+                data.readFully(commandData);
+            }
+            byte[] response = new byte[data.readInt()];
+            data.readFully(response);
+            boolean extended = (flags & RecordingConnection.RECORD_EXTENDED) != 0;
+            exchanges.add(new Exchange(new CommandApdu(cla, ins, p1, p2, commandData, extended), hasData, durationNanos, response));
+        }
+    }
+
+    public ReplayConnection(InputStream in) throws IOException {
+        this(in, 1.0);
+    }
+
+    /**
+     * The number of recorded exchanges not yet replayed.
+     */
+    public synchronized int getRemaining() {
+        return exchanges.size() - position;
+    }
+
+    /**
+     * Starts the replay over from the first exchange.
+     */
+    public synchronized void rewind() {
+        position = 0;
+    }
+
+    @Override
+    public boolean isExtendedLengthSupported() {
+        return extendedLengthSupported;
+    }
+
+    @Override
+    public byte[] send(byte cla, byte ins, byte p1, byte p2, byte[] data) throws IOException {
+        return replay(cla, ins, p1, p2, data, false);
+    }
+
+    @Override
+    public byte[] sendExtended(byte cla, byte ins, byte p1, byte p2, byte[] data) throws IOException {
+        return replay(cla, ins, p1, p2, data, true);
+    }
+
+    private synchronized byte[] replay(byte cla, byte ins, byte p1, byte p2, byte[] data, boolean extended) throws IOException {
+        if (position >= exchanges.size()) {
+            throw new EOFException("End of recording");
+        }
+        Exchange exchange = exchanges.get(position);
+        CommandApdu expected = exchange.command;
+        if (expected.cla != cla || expected.ins != ins || expected.p1 != p1 || expected.p2 != p2
+                || expected.extended != extended || expected.data.length != data.length
+                || (exchange.hasData && !Arrays.equals(expected.data, data))) {
+            throw new IOException(String.format("Command %d does not match the recording, expected INS %02x", position, expected.ins));
+        }
+        position++;
+
+        long delay = (long) (exchange.durationNanos * timeScale);
+        if (delay > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted", e);
+            }
+        }
+        return exchange.response.clone();
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,19 @@
+package com.yubico.yubikitold.transport;
+
+import java.io.IOException;
+
+public interface YubiKeyTransport {
+    boolean hasIso7816();
+
+    Iso7816Connection connect() throws IOException;
+
+    /**
+     * The time the YubiKey was discovered, for latency measurements.
+     *
+     * @return the value of System.nanoTime() at discovery, or 0 if unknown.
+     */
+    default long getDiscoveredAt() {
+        return 0;
+    }
+
+}
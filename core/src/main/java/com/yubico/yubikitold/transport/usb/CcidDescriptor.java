@@ -0,0 +1,80 @@
+package com.yubico.yubikitold.transport.usb;
+
+/**
+ * The parts of a CCID class descriptor (USB CCID specification, section 5.1) needed to talk to
+ * a reader.
+ */
+public final class CcidDescriptor {
+    private static final byte DESCRIPTOR_INTERFACE = 0x04;
+    private static final byte DESCRIPTOR_CCID = 0x21;
+    private static final byte CLASS_CCID = 0x0b;
+    private static final int CCID_DESCRIPTOR_LENGTH = 0x36;
+    private static final int OFFSET_FEATURES = 40;
+    private static final int OFFSET_MAX_MESSAGE_LENGTH = 44;
+
+    public static final int FEATURE_TPDU = 0x00010000;
+    public static final int FEATURE_SHORT_APDU = 0x00020000;
+    public static final int FEATURE_EXTENDED_APDU = 0x00040000;
+    private static final int FEATURE_EXCHANGE_LEVEL_MASK = 0x00070000;
+
+    public enum ExchangeLevel {
+        CHARACTER, TPDU, SHORT_APDU, EXTENDED_APDU
+    }
+
+    public final int features;
+    public final int maxMessageLength;
+
+    private CcidDescriptor(int features, int maxMessageLength) {
+        this.features = features;
+        this.maxMessageLength = maxMessageLength;
+    }
+
+    /**
+     * The level at which the reader exchanges data with the card, as given by dwFeatures.
+     */
+    public ExchangeLevel getExchangeLevel() {
+        int level = features & FEATURE_EXCHANGE_LEVEL_MASK;
+        if ((level & FEATURE_EXTENDED_APDU) != 0) {
+            return ExchangeLevel.EXTENDED_APDU;
+        } else if ((level & FEATURE_SHORT_APDU) != 0) {
+            return ExchangeLevel.SHORT_APDU;
+        } else if ((level & FEATURE_TPDU) != 0) {
+            return ExchangeLevel.TPDU;
+        }
+        return ExchangeLevel.CHARACTER;
+    }
+
+    public boolean isExtendedApduSupported() {
+        return getExchangeLevel() == ExchangeLevel.EXTENDED_APDU;
+    }
+
+    /**
+     * Finds the CCID class descriptor of the first CCID interface in the raw descriptors of a
+     * USB device, as returned by UsbDeviceConnection.getRawDescriptors().
+     *
+     * @param raw the raw USB descriptors.
+     * @return the parsed descriptor, or null if none was found.
+     */
+    public static CcidDescriptor find(byte[] raw) {
+        boolean inCcidInterface = false;
+        int offset = 0;
+        while (offset + 2 <= raw.length) {
+            int length = raw[offset] & 0xff;
+            if (length < 2 || offset + length > raw.length) {
+                break;
+            }
+            byte type = raw[offset + 1];
+            if (type == DESCRIPTOR_INTERFACE && length >= 9) {
+                inCcidInterface = raw[offset + 5] == CLASS_CCID;
+            } else if (type == DESCRIPTOR_CCID && inCcidInterface && length >= CCID_DESCRIPTOR_LENGTH) {
+                return new CcidDescriptor(getInt(raw, offset + OFFSET_FEATURES), getInt(raw, offset + OFFSET_MAX_MESSAGE_LENGTH));
+            }
+            offset += length;
+        }
+        return null;
+    }
+
+    private static int getInt(byte[] data, int offset) {
+        return (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8 | (data[offset + 2] & 0xff) << 16 | (data[offset + 3] & 0xff) << 24;
+    }
+}
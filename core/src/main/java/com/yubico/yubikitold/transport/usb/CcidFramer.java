@@ -0,0 +1,207 @@
+package com.yubico.yubikitold.transport.usb;
+
+import com.yubico.yubikitold.transport.Apdus;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Frames CCID messages (USB CCID specification, section 6) for a single slot, reusing its buffers
+ * across exchanges.
+ * <p>
+ * A command is encoded into the out buffer, header and APDU in place, and sent from there in
+ * packets. Responses are read straight into the in buffer, at {@link #getReadOffset()}, and each
+ * read is passed to {@link #onPacketRead(int)} until it returns true. The first read is a single
+ * packet holding the header, after which the rest of the message is known from its length. The
+ * buffers are sized for the largest message the reader supports, and only grow if a message is
+ * larger still, so a session allocates nothing but the returned response data.
+ */
+public final class CcidFramer {
+    public static final int HEADER_LENGTH = 10;
+    public static final byte PC_TO_RDR_ICC_POWER_ON = 0x62;
+    public static final byte PC_TO_RDR_XFR_BLOCK = 0x6f;
+    public static final byte RDR_TO_PC_DATA_BLOCK = (byte) 0x80;
+
+    private static final byte SLOT = 0;
+    private static final byte STATUS_TIME_EXTENSION = (byte) 0x80;
+    private static final int MAX_MISMATCHED = 5;
+    private static final int DEFAULT_MAX_MESSAGE_LENGTH = HEADER_LENGTH + 5 + Apdus.MAX_SHORT_DATA_LENGTH + 3;
+    // A header and the largest extended APDU, which is larger than the largest response.
+    private static final int MAX_MESSAGE_LENGTH = HEADER_LENGTH + 9 + Apdus.MAX_EXTENDED_DATA_LENGTH;
+
+    private final int inPacketSize;
+    private byte[] out;
+    private byte[] in;
+    private int inLength;
+    private int mismatched;
+    private int timeExtensions;
+    private byte sequence = 0;
+
+    /**
+     * @param inPacketSize     the max packet size of the bulk in endpoint.
+     * @param maxMessageLength the largest message supported by the reader, as given by
+     *                         dwMaxCCIDMessageLength, or 0 if unknown.
+     */
+    public CcidFramer(int inPacketSize, int maxMessageLength) {
+        this.inPacketSize = inPacketSize;
+        int bufferSize = maxMessageLength > 0 ? Math.min(maxMessageLength, MAX_MESSAGE_LENGTH) : DEFAULT_MAX_MESSAGE_LENGTH;
+        out = new byte[bufferSize];
+        in = new byte[Math.max(inPacketSize, bufferSize)];
+    }
+
+    public CcidFramer(int inPacketSize) {
+        this(inPacketSize, 0);
+    }
+
+    /**
+     * The buffer holding the last encoded command.
+     */
+    public byte[] getOutBuffer() {
+        return out;
+    }
+
+    /**
+     * Encodes a PC_to_RDR_IccPowerOn message.
+     *
+     * @return the length of the message in the out buffer.
+     */
+    public int encodePowerOn() {
+        writeHeader(PC_TO_RDR_ICC_POWER_ON, 0);
+        return HEADER_LENGTH;
+    }
+
+    /**
+     * Encodes a PC_to_RDR_XfrBlock message carrying an APDU.
+     *
+     * @return the length of the message in the out buffer.
+     */
+    public int encodeXfrBlock(byte cla, byte ins, byte p1, byte p2, byte[] data, boolean extended) {
+        int apduLength = Apdus.getEncodedLength(data.length, extended);
+        if (out.length < HEADER_LENGTH + apduLength) {
+            out = new byte[HEADER_LENGTH + apduLength];
+        }
+        writeHeader(PC_TO_RDR_XFR_BLOCK, apduLength);
+        Apdus.encode(cla, ins, p1, p2, data, extended, out, HEADER_LENGTH);
+        return HEADER_LENGTH + apduLength;
+    }
+
+    private void writeHeader(byte type, int length) {
+        out[0] = type;
+        putInt(out, 1, length);
+        out[5] = SLOT;
+        out[6] = sequence;
+        out[7] = 0;  // bPowerSelect, automatic for power on.
+        out[8] = 0;
+        out[9] = 0;
+        inLength = 0;
+        mismatched = 0;
+        timeExtensions = 0;
+    }
+
+    /**
+     * The buffer to read response packets into.
+     */
+    public byte[] getInBuffer() {
+        return in;
+    }
+
+    /**
+     * The number of bytes to read next: a packet until the header has been received, then the rest
+     * of the message.
+     */
+    public int getReadLength() {
+        if (inLength < HEADER_LENGTH) {
+            return inPacketSize;
+        }
+        return HEADER_LENGTH + getInt(in, 1) - inLength;
+    }
+
+    /**
+     * The offset in the in buffer to read the next packet into, with room for the next read.
+     */
+    public int getReadOffset() {
+        int needed = inLength + Math.max(inPacketSize, getReadLength());
+        if (in.length < needed) {
+            in = Arrays.copyOf(in, Math.max(in.length * 2, needed));
+        }
+        return inLength;
+    }
+
+    /**
+     * Handles data read into the in buffer at the read offset.
+     *
+     * @param read the number of bytes read, or a negative value on failure.
+     * @return true if the response is complete, false if more should be read.
+     * @throws IOException if the read failed, the response is too long, or too many responses were
+     *                     for another message.
+     */
+    public boolean onPacketRead(int read) throws IOException {
+        if (read < 0) {
+            throw new IOException("Failed to read response");
+        }
+        boolean first = inLength == 0;
+        inLength += read;
+        if (first) {
+            // Short packets, such as a trailing empty one, and responses to earlier messages are skipped.
+            if (inLength < HEADER_LENGTH || in[5] != SLOT || in[6] != sequence) {
+                if (++mismatched > MAX_MISMATCHED) {
+                    throw new IOException("Failed to read response");
+                }
+                inLength = 0;
+                return false;
+            }
+            if (in[7] == STATUS_TIME_EXTENSION) {
+                timeExtensions++;
+                inLength = 0;
+                return false;
+            }
+            int length = getInt(in, 1);
+            if (length < 0 || length > MAX_MESSAGE_LENGTH - HEADER_LENGTH) {
+                throw new IOException("Invalid response length");
+            }
+        }
+        if (read == 0 && inLength < HEADER_LENGTH + getInt(in, 1)) {
+            throw new IOException("Incomplete response");
+        }
+        return getReadLength() <= 0;
+    }
+
+    /**
+     * The number of time extensions received for the current message, each meaning that the reader
+     * is still waiting, typically for the user to touch the YubiKey.
+     */
+    public int getTimeExtensions() {
+        return timeExtensions;
+    }
+
+    /**
+     * Checks the completed response and returns its data, advancing the sequence number.
+     */
+    public byte[] decodeDataBlock() throws IOException {
+        sequence++;
+        if (in[0] != RDR_TO_PC_DATA_BLOCK) {
+            throw new IOException("Invalid response");
+        }
+        byte status = in[7];
+        byte error = in[8];
+        if (status != 0) {
+            throw new IOException(String.format("Invalid response! bStatus: 0x%02x, bError: 0x%02x", status, error));
+        }
+        int length = getInt(in, 1);
+        if (length < 0 || length > inLength - HEADER_LENGTH) {
+            throw new IOException("Incomplete response");
+        }
+        return Arrays.copyOfRange(in, HEADER_LENGTH, HEADER_LENGTH + length);
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >> 8);
+        buffer[offset + 2] = (byte) (value >> 16);
+        buffer[offset + 3] = (byte) (value >> 24);
+    }
+
+    private static int getInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xff) | (buffer[offset + 1] & 0xff) << 8 | (buffer[offset + 2] & 0xff) << 16 | (buffer[offset + 3] & 0xff) << 24;
+    }
+}
@@ -0,0 +1,358 @@
+package com.yubico.yubikitold.transport.usb;
+
+import com.yubico.yubikitold.transport.CommandApdu;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The state of an asynchronous CCID connection, sending queued commands one at a time over
+ * transfers which complete asynchronously.
+ * <p>
+ * The owner provides the transfers, such as UsbRequests, and reports each completed transfer to
+ * {@link #onOutComplete()} or {@link #onInComplete()}. At most one transfer in each direction is
+ * queued at a time, and a transfer is never queued again before its completion has been reported.
+ * An IN transfer is kept queued at all times from {@link #start()} until the queue is closed.
+ */
+public final class CcidRequestQueue {
+    private static final long TIMEOUT = 10000;
+    private static final int MAX_REQUEST_LENGTH = 16384;  // Limit of UsbRequest.queue before API 28.
+
+    /**
+     * Queues transfers, returning false if a transfer couldn't be queued.
+     */
+    public interface Transfers {
+        /**
+         * Queues sending the first length bytes of the buffer.
+         */
+        boolean queueOut(ByteBuffer buffer, int length);
+
+        /**
+         * Queues reading up to length bytes into the buffer, leaving its position after the data.
+         */
+        boolean queueIn(ByteBuffer buffer, int length);
+    }
+
+    /**
+     * Called with the queue locked, from the thread reporting the transfer.
+     */
+    public interface TimeExtensionListener {
+        void onTimeExtension();
+    }
+
+    /**
+     * Called with either the response or the error, from the thread completing the command.
+     */
+    public interface ResponseCallback {
+        void onResponse(byte[] response, IOException error);
+    }
+
+    /**
+     * The pending response to a command.
+     * <p>
+     * A command can't be taken back once sent to the YubiKey, so cancel only succeeds for commands
+     * still waiting for an earlier command to complete.
+     */
+    public final class ResponseFuture implements Future<byte[]> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final CommandApdu command;
+        private byte[] response;
+        private IOException error;
+        private boolean cancelled;
+        private ResponseCallback callback;
+
+        private ResponseFuture(CommandApdu command) {
+            this.command = command;
+        }
+
+        /**
+         * Sets a callback to invoke once the response is available, immediately if it already is.
+         */
+        public void setCallback(ResponseCallback callback) {
+            synchronized (this) {
+                if (done.getCount() > 0) {
+                    this.callback = callback;
+                    return;
+                }
+            }
+            callback.onResponse(response, error);
+        }
+
+        private void complete(byte[] response, IOException error) {
+            ResponseCallback callback;
+            synchronized (this) {
+                if (done.getCount() == 0) {
+                    return;
+                }
+                this.response = response;
+                this.error = error;
+                callback = this.callback;
+                done.countDown();
+            }
+            if (callback != null) {
+                callback.onResponse(response, error);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            synchronized (CcidRequestQueue.this) {
+                if (!pending.remove(this)) {
+                    return false;
+                }
+            }
+            cancelled = true;
+            complete(null, new IOException("Cancelled"));
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        @Override
+        public byte[] get() throws InterruptedException, ExecutionException {
+            done.await();
+            return getResponse();
+        }
+
+        @Override
+        public byte[] get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return getResponse();
+        }
+
+        private synchronized byte[] getResponse() throws ExecutionException {
+            if (error != null) {
+                throw new ExecutionException(error);
+            }
+            return response;
+        }
+
+        /**
+         * Waits for the response, failing if nothing at all is received from the reader for 10
+         * seconds.
+         */
+        public byte[] await() throws IOException {
+            while (true) {
+                long activity = lastActivity;
+                try {
+                    return get(TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    if (activity == lastActivity) {
+                        throw new IOException("Timed out waiting for response");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted", e);
+                } catch (ExecutionException e) {
+                    throw (IOException) e.getCause();
+                }
+            }
+        }
+    }
+
+    private final Transfers transfers;
+    private final CcidFramer framer;
+    private final ByteBuffer inBuffer, outBuffer;
+    private final int inPacketSize, outPacketSize;
+    private final Queue<ResponseFuture> pending = new ArrayDeque<>();
+    private TimeExtensionListener timeExtensionListener;
+    private volatile long lastActivity;
+    private ResponseFuture current;
+    private int outLength, outOffset;
+    private boolean outDone = true;
+    private boolean outInFlight = false;
+    private boolean closed = false;
+
+    /**
+     * @param maxMessageLength the largest message supported by the reader, as given by
+     *                         dwMaxCCIDMessageLength, or 0 if unknown.
+     */
+    public CcidRequestQueue(Transfers transfers, int inPacketSize, int outPacketSize, int maxMessageLength) {
+        this.transfers = transfers;
+        this.inPacketSize = inPacketSize;
+        this.outPacketSize = outPacketSize;
+        framer = new CcidFramer(inPacketSize, maxMessageLength);
+        inBuffer = ByteBuffer.allocate(Math.max(inPacketSize, Math.min(maxMessageLength, MAX_REQUEST_LENGTH)));
+        outBuffer = ByteBuffer.allocate(MAX_REQUEST_LENGTH - MAX_REQUEST_LENGTH % outPacketSize);
+    }
+
+    public synchronized void setTimeExtensionListener(TimeExtensionListener listener) {
+        timeExtensionListener = listener;
+    }
+
+    /**
+     * Queues the first IN transfer. If it can't be queued the queue is closed.
+     *
+     * @return false if the queue is closed.
+     */
+    public synchronized boolean start() {
+        if (!closed && !transfers.queueIn(inBuffer, getReadLength())) {
+            close(new IOException("Failed to read response"));
+        }
+        return !closed;
+    }
+
+    /**
+     * Queues a command, to be sent once all earlier commands have completed.
+     *
+     * @param command the command to send, or null to power on the slot.
+     */
+    public synchronized ResponseFuture enqueue(CommandApdu command) {
+        ResponseFuture future = new ResponseFuture(command);
+        if (closed) {
+            future.complete(null, new IOException("Connection closed"));
+        } else {
+            pending.add(future);
+            if (current == null) {
+                startNext();
+            }
+        }
+        return future;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes the queue, failing the current and all pending commands with the error.
+     *
+     * @return false if the queue was already closed.
+     */
+    public synchronized boolean close(IOException error) {
+        if (closed) {
+            return false;
+        }
+        closed = true;
+        fail(error);
+        return true;
+    }
+
+    private void startNext() {
+        current = pending.poll();
+        if (current == null) {
+            return;
+        }
+        CommandApdu command = current.command;
+        outLength = command == null ? framer.encodePowerOn() : framer.encodeXfrBlock(command.cla, command.ins, command.p1, command.p2, command.data, command.extended);
+        outOffset = 0;
+        outDone = false;
+        lastActivity = System.nanoTime();
+        queueOut();
+    }
+
+    // Sends the next part of the message, ending with an empty packet if the message is a multiple
+    // of the packet size. Waits for the previous transfer, which may be the empty packet ending the
+    // previous message, to complete first.
+    private void queueOut() {
+        if (outInFlight || outDone || current == null) {
+            return;
+        }
+        int length = Math.min(outBuffer.capacity(), outLength - outOffset);
+        outBuffer.clear();
+        outBuffer.put(framer.getOutBuffer(), outOffset, length);
+        outOffset += length;
+        outDone = outOffset == outLength && (length == 0 || length % outPacketSize != 0);
+        if (transfers.queueOut(outBuffer, length)) {
+            outInFlight = true;
+        } else {
+            fail(new IOException("Failed to send command"));
+        }
+    }
+
+    /**
+     * Handles the completion of the OUT transfer.
+     */
+    public synchronized void onOutComplete() {
+        outInFlight = false;
+        if (!closed) {
+            queueOut();
+        }
+    }
+
+    /**
+     * Handles the completion of the IN transfer, with the data read before the buffer position,
+     * and queues the next one.
+     */
+    public synchronized void onInComplete() {
+        if (closed) {
+            return;
+        }
+        onPacket();
+        if (!closed && !transfers.queueIn(inBuffer, getReadLength())) {
+            close(new IOException("Failed to read response"));
+        }
+    }
+
+    // Reads a packet for the header, then the rest of the message at once.
+    private int getReadLength() {
+        if (current == null) {
+            return inPacketSize;
+        }
+        return Math.max(inPacketSize, Math.min(framer.getReadLength(), inBuffer.capacity()));
+    }
+
+    private void onPacket() {
+        int read = inBuffer.position();
+        inBuffer.clear();
+        if (current == null) {
+            return;  // Not a response to any command, such as a late time extension.
+        }
+        lastActivity = System.nanoTime();
+        int offset = framer.getReadOffset();
+        inBuffer.get(framer.getInBuffer(), offset, read);
+        inBuffer.clear();
+        int timeExtensions = framer.getTimeExtensions();
+        try {
+            boolean complete = framer.onPacketRead(read);
+            if (framer.getTimeExtensions() != timeExtensions && timeExtensionListener != null) {
+                timeExtensionListener.onTimeExtension();
+            }
+            if (complete) {
+                ResponseFuture done = current;
+                byte[] response = framer.decodeDataBlock();
+                current = null;
+                done.complete(response, null);
+                startNext();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    // Fails the current command and continues with the next one, or fails all pending commands
+    // once closed.
+    private void fail(IOException error) {
+        ResponseFuture failed = current;
+        current = null;
+        outDone = true;
+        if (failed != null) {
+            failed.complete(null, error);
+        }
+        if (closed) {
+            for (ResponseFuture future : pending) {
+                future.complete(null, error);
+            }
+            pending.clear();
+        } else {
+            startNext();
+        }
+    }
+}
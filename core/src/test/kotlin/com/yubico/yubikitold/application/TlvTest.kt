@@ -0,0 +1,103 @@
+package com.yubico.yubikitold.application
+
+import org.junit.Assert
+import org.junit.Test
+import java.io.IOException
+
+class TlvTest {
+
+    @Test
+    fun testIterateElements() {
+        val data = byteArrayOf(0x71, 3, 'f'.toByte(), 'o'.toByte(), 'o'.toByte(), 0x76, 5, 8, 0x41, 0x39, 0x7e, 0xea.toByte(), 0x7c, 1, 6)
+        val cursor = TlvCursor(data)
+
+        Assert.assertTrue(cursor.next())
+        Assert.assertEquals(0x71.toByte(), cursor.tag)
+        Assert.assertEquals("foo", cursor.string)
+
+        Assert.assertTrue(cursor.next())
+        Assert.assertEquals(0x76.toByte(), cursor.tag)
+        Assert.assertEquals(7, cursor.valueOffset)
+        Assert.assertEquals(5, cursor.length)
+        Assert.assertEquals(8.toByte(), cursor.getByte(0))
+
+        Assert.assertTrue(cursor.next())
+        Assert.assertEquals(0x7c.toByte(), cursor.tag)
+        Assert.assertArrayEquals(byteArrayOf(6), cursor.value)
+
+        Assert.assertFalse(cursor.next())
+
+        cursor.rewind()
+        cursor.expect(0x71)
+    }
+
+    @Test
+    fun testLongLength() {
+        val value = ByteArray(300) { it.toByte() }
+        val data = byteArrayOf(0x73, 0x82.toByte(), 0x01, 0x2c) + value + byteArrayOf(0x74, 0x81.toByte(), 0x80.toByte()) + ByteArray(0x80)
+        val cursor = TlvCursor(data)
+
+        Assert.assertTrue(cursor.next())
+        Assert.assertEquals(300, cursor.length)
+        Assert.assertTrue(cursor.valueEquals(value))
+
+        Assert.assertTrue(cursor.next())
+        Assert.assertEquals(0x74.toByte(), cursor.tag)
+        Assert.assertEquals(0x80, cursor.length)
+        Assert.assertFalse(cursor.next())
+    }
+
+    @Test(expected = IOException::class)
+    fun testTruncatedValue() {
+        TlvCursor(byteArrayOf(0x71, 4, 1, 2)).next()
+    }
+
+    @Test(expected = IOException::class)
+    fun testUnexpectedTag() {
+        TlvCursor(byteArrayOf(0x71, 0)).expect(0x74)
+    }
+
+    @Test
+    fun testWriteLengths() {
+        val writer = TlvWriter(4)
+        writer.put(0x71, ByteArray(0x7f)).put(0x72, ByteArray(0x80)).put(0x73, ByteArray(0xff)).put(0x74, ByteArray(0x100))
+
+        val cursor = TlvCursor(writer.buffer, 0, writer.length)
+        for (length in listOf(0x7f, 0x80, 0xff, 0x100)) {
+            Assert.assertTrue(cursor.next())
+            Assert.assertEquals(length, cursor.length)
+        }
+        Assert.assertFalse(cursor.next())
+        Assert.assertEquals(2 + 0x7f + 3 + 0x80 + 3 + 0xff + 4 + 0x100, writer.length)
+
+        writer.reset().put(0x73)
+        Assert.assertArrayEquals(byteArrayOf(0x73, 0), writer.toByteArray())
+    }
+
+    @Test
+    fun testWriteUtf8() {
+        val name = "Issuer:na\u00efve\u20ac\ud83d\ude00"
+        val writer = TlvWriter().putUtf8(0x71, name)
+        Assert.assertArrayEquals(Tlv.of(0x71, name.toByteArray(Charsets.UTF_8)).bytes, writer.toByteArray())
+    }
+
+    @Test
+    fun testTable() {
+        val data = byteArrayOf(0x79, 3, 5, 1, 2, 0x71, 2, 0x0a, 0x0b, 0x74, 0, 0x71, 1, 0x0c)
+        val table = TlvTable(data)
+
+        Assert.assertEquals(4, table.size())
+        Assert.assertEquals(2, table.getOffset(0x79))
+        Assert.assertEquals(3, table.getLength(0x79))
+        Assert.assertTrue(table.contains(0x74))
+        Assert.assertArrayEquals(ByteArray(0), table.getValue(0x74))
+        Assert.assertTrue(table.valueEquals(0x71, byteArrayOf(0x0c)))  // Last occurrence wins
+        Assert.assertFalse(table.contains(0x75))
+        Assert.assertEquals(-1, table.getOffset(0x75))
+        Assert.assertNull(table.getValue(0x75))
+
+        table.parse(byteArrayOf(0x75, 1, 1))
+        Assert.assertEquals(1, table.size())
+        Assert.assertFalse(table.contains(0x79))
+    }
+}
@@ -0,0 +1,100 @@
+package com.yubico.yubikitold.application.ndef
+
+import com.yubico.yubikitold.application.ApduException
+import com.yubico.yubikitold.transport.Iso7816Connection
+import org.junit.Assert
+import org.junit.Test
+
+class NdefApplicationTest {
+    // A Type 4 Tag which, like real tags, rejects any read reaching past the end of the file.
+    private class FakeTag(private val ndef: ByteArray, mle: Int = 0xff) : Iso7816Connection {
+        private val cc = byteArrayOf(
+                0, 15, 0x20, (mle shr 8).toByte(), mle.toByte(), 0, 0xff.toByte(),
+                4, 6, 0xe1.toByte(), 0x04, (ndef.size shr 8).toByte(), ndef.size.toByte(), 0, 0xff.toByte()
+        )
+        private var selected: ByteArray? = null
+        val commands = mutableListOf<ByteArray>()
+
+        override fun send(cla: Byte, ins: Byte, p1: Byte, p2: Byte, data: ByteArray): ByteArray {
+            commands.add(byteArrayOf(cla, ins, p1, p2) + data)
+            return when (ins) {
+                0xa4.toByte() -> {
+                    selected = when {
+                        p1 == 0x04.toByte() -> null
+                        data.contentEquals(byteArrayOf(0xe1.toByte(), 0x03)) -> cc
+                        data.contentEquals(byteArrayOf(0xe1.toByte(), 0x04)) -> ndef
+                        else -> return byteArrayOf(0x6a, 0x82.toByte())
+                    }
+                    byteArrayOf(0x90.toByte(), 0x00)
+                }
+                0xb0.toByte() -> read(p1, p2, 256)
+                else -> byteArrayOf(0x6d, 0x00)
+            }
+        }
+
+        override fun sendWithLe(cla: Byte, ins: Byte, p1: Byte, p2: Byte, le: Int): ByteArray {
+            commands.add(byteArrayOf(cla, ins, p1, p2, le.toByte()))
+            return if (ins == 0xb0.toByte()) read(p1, p2, le) else byteArrayOf(0x6d, 0x00)
+        }
+
+        private fun read(p1: Byte, p2: Byte, le: Int): ByteArray {
+            val file = selected ?: return byteArrayOf(0x69, 0x86.toByte())
+            val offset = (p1.toInt() and 0xff) shl 8 or (p2.toInt() and 0xff)
+            if (offset + le > file.size) {
+                return byteArrayOf(0x6b, 0x00)
+            }
+            return file.copyOfRange(offset, offset + le) + byteArrayOf(0x90.toByte(), 0x00)
+        }
+
+        override fun isExtendedLengthSupported(): Boolean = false
+
+        override fun sendExtended(cla: Byte, ins: Byte, p1: Byte, p2: Byte, data: ByteArray): ByteArray = send(cla, ins, p1, p2, data)
+
+        override fun close() = Unit
+    }
+
+    private fun ndefFile(message: ByteArray): ByteArray = byteArrayOf((message.size shr 8).toByte(), message.size.toByte()) + message
+
+    @Test
+    fun testReadMessage() {
+        // The file ends right after the message, so a read of 256 bytes would fail.
+        val message = ByteArray(60) { it.toByte() }
+        val tag = FakeTag(ndefFile(message))
+        Assert.assertArrayEquals(message, NdefApplication(tag).readNdefMessage())
+
+        Assert.assertEquals(6, tag.commands.size)
+        Assert.assertArrayEquals(byteArrayOf(0, 0xa4.toByte(), 4, 0) + NdefApplication.AID, tag.commands[0])
+        Assert.assertArrayEquals(byteArrayOf(0, 0xa4.toByte(), 0, 0x0c, 0xe1.toByte(), 0x03), tag.commands[1])
+        Assert.assertArrayEquals(byteArrayOf(0, 0xb0.toByte(), 0, 0, 15), tag.commands[2])
+        Assert.assertArrayEquals(byteArrayOf(0, 0xa4.toByte(), 0, 0x0c, 0xe1.toByte(), 0x04), tag.commands[3])
+        Assert.assertArrayEquals(byteArrayOf(0, 0xb0.toByte(), 0, 0, 2), tag.commands[4])
+        Assert.assertArrayEquals(byteArrayOf(0, 0xb0.toByte(), 0, 2, 60), tag.commands[5])
+    }
+
+    @Test
+    fun testReadInChunks() {
+        val message = ByteArray(300) { it.toByte() }
+        val tag = FakeTag(ndefFile(message) + ByteArray(20), 128)
+        Assert.assertArrayEquals(message, NdefApplication(tag).readNdefMessage())
+
+        Assert.assertEquals(8, tag.commands.size)
+        Assert.assertArrayEquals(byteArrayOf(0, 0xb0.toByte(), 0, 2, 128.toByte()), tag.commands[5])
+        Assert.assertArrayEquals(byteArrayOf(0, 0xb0.toByte(), 0, 130.toByte(), 128.toByte()), tag.commands[6])
+        Assert.assertArrayEquals(byteArrayOf(0, 0xb0.toByte(), 1, 2, 44), tag.commands[7])
+    }
+
+    @Test
+    fun testEmptyFile() {
+        Assert.assertNull(NdefApplication(FakeTag(ByteArray(2))).readNdefMessage())
+    }
+
+    @Test(expected = ApduException::class)
+    fun testNoApplet() {
+        NdefApplication(object : Iso7816Connection {
+            override fun send(cla: Byte, ins: Byte, p1: Byte, p2: Byte, data: ByteArray): ByteArray = byteArrayOf(0x6a, 0x82.toByte())
+            override fun isExtendedLengthSupported(): Boolean = false
+            override fun sendExtended(cla: Byte, ins: Byte, p1: Byte, p2: Byte, data: ByteArray): ByteArray = send(cla, ins, p1, p2, data)
+            override fun close() = Unit
+        }).readNdefMessage()
+    }
+}
@@ -0,0 +1,27 @@
+package com.yubico.yubikitold.application.oath
+
+import org.junit.Assert
+import org.junit.Test
+
+class CredentialIdTest {
+    private fun assertParsed(key: String, period: Int, issuer: String?, name: String) {
+        val id = CredentialId.parse(key)
+        Assert.assertEquals(period, id.period)
+        Assert.assertEquals(issuer, id.issuer)
+        Assert.assertEquals(name, id.name)
+    }
+
+    @Test
+    fun testParse() {
+        assertParsed("user@example.com", 30, null, "user@example.com")
+        assertParsed("Example:user@example.com", 30, "Example", "user@example.com")
+        assertParsed("60/Example:user:name", 60, "Example", "user:name")
+        assertParsed("15/user", 15, null, "user")
+    }
+
+    @Test
+    fun testNonNumericPeriod() {
+        assertParsed("a/b:c", 30, "a/b", "c")
+        assertParsed("/user", 30, null, "/user")
+    }
+}
@@ -0,0 +1,295 @@
+package com.yubico.yubikitold.application.oath
+
+import com.yubico.yubikitold.application.AbstractApplication
+import com.yubico.yubikitold.application.ApduException
+import com.yubico.yubikitold.application.ApduTraceBuffer
+import com.yubico.yubikitold.transport.Iso7816Connection
+import org.junit.Assert
+import org.junit.Test
+import java.io.IOException
+import java.util.*
+import javax.crypto.Mac
+import javax.crypto.spec.SecretKeySpec
+
+class OathApplicationTest {
+    private class FakeConnection(private val handler: (ins: Byte, data: ByteArray) -> ByteArray) : Iso7816Connection {
+        constructor(vararg responses: ByteArray) : this(LinkedList(responses.toList()).let { queue -> { _: Byte, _: ByteArray -> queue.poll() ?: throw IOException("No response") } })
+
+        val commands = mutableListOf<ByteArray>()
+        var extendedLengthSupported = false
+        var extendedCommands = 0
+
+        override fun send(cla: Byte, ins: Byte, p1: Byte, p2: Byte, data: ByteArray): ByteArray {
+            commands.add(byteArrayOf(cla, ins, p1, p2) + data)
+            return handler(ins, data)
+        }
+
+        override fun isExtendedLengthSupported(): Boolean = extendedLengthSupported
+
+        override fun sendExtended(cla: Byte, ins: Byte, p1: Byte, p2: Byte, data: ByteArray): ByteArray {
+            extendedCommands++
+            return send(cla, ins, p1, p2, data)
+        }
+
+        override fun close() = Unit
+    }
+
+    private fun hmacSha1(key: ByteArray, data: ByteArray): ByteArray = Mac.getInstance("HmacSHA1").run {
+        init(SecretKeySpec(key, algorithm))
+        doFinal(data)
+    }
+
+    @Test
+    fun testSelectAndUnlock() {
+        val key = ByteArray(16) { it.toByte() }
+        val challenge = byteArrayOf(1, 2, 3, 4, 5, 6, 7, 8)
+        var cardKey = key
+        val connection = FakeConnection { ins, data ->
+            when (ins) {
+                0xa4.toByte() -> byteArrayOf(0x79, 3, 4, 3, 1, 0x71, 2, 0x0a, 0x0b, 0x74, 8) + challenge + byteArrayOf(0x90.toByte(), 0x00)
+                0xa3.toByte() -> {
+                    Assert.assertArrayEquals(hmacSha1(key, challenge), data.copyOfRange(2, 22))
+                    byteArrayOf(0x75, 20) + hmacSha1(cardKey, data.copyOfRange(24, 32)) + byteArrayOf(0x90.toByte(), 0x00)
+                }
+                else -> byteArrayOf(0x6d, 0x00)
+            }
+        }
+        val app = OathApplication(connection)
+        app.select()
+
+        Assert.assertEquals("4.3.1", app.version.toString())
+        Assert.assertArrayEquals(byteArrayOf(0x0a, 0x0b), app.deviceId)
+        Assert.assertTrue(app.isLocked)
+
+        val signer = ChallengeSigner { hmacSha1(key, it) }
+        cardKey = ByteArray(16)
+        try {
+            app.unlock(signer)
+            Assert.fail("Invalid response accepted")
+        } catch (e: IOException) {
+            Assert.assertTrue(app.isLocked)
+        }
+
+        cardKey = key
+        app.unlock(signer)
+        Assert.assertFalse(app.isLocked)
+    }
+
+    @Test
+    fun testErrorStatus() {
+        try {
+            OathApplication(FakeConnection(byteArrayOf(0x6a, 0x82.toByte()))).select()
+            Assert.fail("Error status ignored")
+        } catch (e: ApduException) {
+            Assert.assertEquals(OathApplication.SW_FILE_NOT_FOUND, e.sw)
+        }
+    }
+
+    @Test
+    fun testCalculateAllWithRemainingData() {
+        val entry = byteArrayOf(0x71, 3, 'f'.toByte(), 'o'.toByte(), 'o'.toByte(), 0x76, 5, 6, 0x12, 0x34, 0x56, 0x78)
+        val connection = FakeConnection(
+                entry + entry.copyOfRange(0, 4) + byteArrayOf(0x61, 0x00),
+                entry.copyOfRange(4, entry.size) + byteArrayOf(0x71, 1, 'x'.toByte(), 0x7c, 1, 6, 0x90.toByte(), 0x00)
+        )
+        val responses = OathApplication(connection).calculateAll(ByteArray(8))
+
+        Assert.assertEquals(listOf("foo", "foo", "x"), responses.map { it.name })
+        Assert.assertEquals(0x12345678, responses[1].getResponseInt(0))
+        Assert.assertEquals("419896", responses[1].formatTruncated())
+        Assert.assertEquals(CalculateResponse.TYPE_TOUCH, responses[2].responseType)
+        Assert.assertEquals(0, responses[2].responseLength)
+        Assert.assertEquals(0xa5.toByte(), connection.commands[1][1])
+    }
+
+    @Test
+    fun testLargeResponse() {
+        val body = (0 until 300).map { i ->
+            val name = "Issuer:user-$i@example.com".toByteArray()
+            byteArrayOf(0x71, name.size.toByte()) + name + byteArrayOf(0x76, 5, 6, 0, 0, 0, i.toByte())
+        }.reduce { acc, bytes -> acc + bytes }
+        Assert.assertTrue(body.size > 4096)
+
+        val chunks = (body.indices step 0xff).map { offset ->
+            val end = minOf(offset + 0xff, body.size)
+            body.copyOfRange(offset, end) + if (end < body.size) byteArrayOf(0x61, 0x00) else byteArrayOf(0x90.toByte(), 0x00)
+        }
+        val connection = FakeConnection(*(chunks + chunks).toTypedArray())
+        val app = OathApplication(connection)
+
+        val first = app.calculateAll(ByteArray(8))
+        val second = app.calculateAll(ByteArray(8))
+        Assert.assertEquals(300, first.size)
+        Assert.assertEquals("Issuer:user-299@example.com", first[299].name)
+        Assert.assertEquals(299 and 0xff, first[299].getResponseInt(0))
+        Assert.assertEquals(first.map { it.name }, second.map { it.name })
+    }
+
+    @Test
+    fun testCalculateBatch() {
+        val connection = FakeConnection(
+                byteArrayOf(0x76, 5, 6, 0, 0, 0, 1, 0x90.toByte(), 0x00),
+                byteArrayOf(0x75, 5, 8, 0, 0, 0, 2, 0x90.toByte(), 0x00)
+        )
+        val responses = OathApplication(connection).calculate(listOf("a", "b"), ByteArray(8), true)
+
+        Assert.assertEquals(listOf("a", "b"), responses.map { it.name })
+        Assert.assertEquals(listOf(1, 2), responses.map { it.getResponseInt(0) })
+        Assert.assertEquals(8, responses[1].digits)
+        Assert.assertEquals(2, connection.commands.size)
+        Assert.assertEquals(0xa2.toByte(), connection.commands[1][1])
+    }
+
+    @Test
+    fun testCalculateBatchErrors() {
+        val failing = FakeConnection(byteArrayOf(0x69, 0x85.toByte()), byteArrayOf(0x76, 5, 6, 0, 0, 0, 1, 0x90.toByte(), 0x00))
+        try {
+            OathApplication(failing).calculate(listOf("a", "b"), ByteArray(8), true)
+            Assert.fail("Error status ignored")
+        } catch (e: ApduException) {
+            Assert.assertEquals(0x6985.toShort(), e.sw)
+        }
+        Assert.assertEquals(2, failing.commands.size)
+
+        val split = FakeConnection(byteArrayOf(0x76, 5, 0x61, 0x00), byteArrayOf(0x90.toByte(), 0x00))
+        try {
+            OathApplication(split).calculate(listOf("a", "b"), ByteArray(8), true)
+            Assert.fail("Split response accepted")
+        } catch (e: IOException) {
+            Assert.assertEquals("Response in batch did not fit in a single APDU", e.message)
+        }
+    }
+
+    @Test
+    fun testPutCredentials() {
+        val connection = FakeConnection(byteArrayOf(0x90.toByte(), 0x00), byteArrayOf(0x6a, 0x84.toByte()), byteArrayOf(0x90.toByte(), 0x00))
+        val app = OathApplication(connection)
+        val puts = listOf("a", "b", "c").map {
+            app.createPutCommand(it, ByteArray(10), OathType.TOTP, HashAlgorithm.SHA1, 6, 0, false)
+        }
+        val sws = app.putCredentials(puts)
+
+        Assert.assertArrayEquals(shortArrayOf(0x9000.toShort(), 0x6a84, 0x9000.toShort()), sws)
+        Assert.assertEquals(3, connection.commands.size)
+        Assert.assertEquals(0x01.toByte(), connection.commands[2][1])
+        Assert.assertArrayEquals(byteArrayOf(0x71, 1, 'c'.toByte()), connection.commands[2].copyOfRange(4, 7))
+    }
+
+    @Test
+    fun testCommandChaining() {
+        val connection = FakeConnection(byteArrayOf(0x90.toByte(), 0x00), byteArrayOf(0x90.toByte(), 0x00))
+        val name = "a".repeat(300)
+        OathApplication(connection).deleteCredential(name)
+
+        Assert.assertEquals(2, connection.commands.size)
+        Assert.assertEquals(0x10.toByte(), connection.commands[0][0])
+        Assert.assertEquals(4 + 0xff, connection.commands[0].size)
+        Assert.assertEquals(0x00.toByte(), connection.commands[1][0])
+        Assert.assertEquals(4 + 300 + 4 - 0xff, connection.commands[1].size)
+    }
+
+    @Test
+    fun testExtendedLength() {
+        val select = byteArrayOf(0x79, 3, 4, 3, 1, 0x71, 1, 0x0a, 0x90.toByte(), 0x00)
+        val ok = byteArrayOf(0x90.toByte(), 0x00)
+        val name = "a".repeat(300)
+
+        val connection = FakeConnection(select, ok)
+        connection.extendedLengthSupported = true
+        val app = OathApplication(connection)
+        app.select()
+        Assert.assertTrue(app.isExtendedLength)
+        app.deleteCredential(name)
+        Assert.assertEquals(1, connection.extendedCommands)
+        Assert.assertEquals(4 + 300 + 4, connection.commands[1].size)
+
+        val oldFirmware = FakeConnection(byteArrayOf(0x79, 3, 3, 4, 0) + ok, ok, ok)
+        oldFirmware.extendedLengthSupported = true
+        OathApplication(oldFirmware).apply {
+            select()
+            Assert.assertFalse(isExtendedLength)
+            deleteCredential(name)
+        }
+        Assert.assertEquals(0, oldFirmware.extendedCommands)
+        Assert.assertEquals(3, oldFirmware.commands.size)
+    }
+
+    @Test
+    fun testTraceBatch() {
+        val trace = ApduTraceBuffer(4, 4)
+        AbstractApplication.setTracer(trace)
+        try {
+            val app = OathApplication(FakeConnection(
+                    byteArrayOf(0x90.toByte(), 0x00),
+                    byteArrayOf(0x6a, 0x84.toByte()),
+                    byteArrayOf(0x90.toByte(), 0x00)
+            ))
+            app.putCredentials(listOf("a", "b", "c").map {
+                app.createPutCommand(it, ByteArray(10), OathType.TOTP, HashAlgorithm.SHA1, 6, 0, false)
+            })
+        } finally {
+            AbstractApplication.setTracer(null)
+        }
+
+        Assert.assertEquals("""
+            > 00010000 [21] <redacted>
+            < [0] <redacted> 9000
+            > 00010000 [21] <redacted>
+            < [0] <redacted> 6a84
+            > 00010000 [21] <redacted>
+            < [0] <redacted> 9000
+        """.trimIndent() + "\n", trace.toString())
+    }
+
+    @Test
+    fun testTraceInterleaved() {
+        val trace = ApduTraceBuffer(4, 4)
+        AbstractApplication.setTracer(trace)
+        try {
+            // Another YubiKey completes an exchange while the first one waits for its response.
+            val other = OathApplication(FakeConnection(byteArrayOf(0x6a, 0x84.toByte())))
+            val app = OathApplication(FakeConnection { _, _ ->
+                try {
+                    other.deleteCredential("b")
+                } catch (e: ApduException) {
+                }
+                byteArrayOf(0x90.toByte(), 0x00)
+            })
+            app.deleteCredential("a")
+        } finally {
+            AbstractApplication.setTracer(null)
+        }
+
+        Assert.assertEquals("""
+            > 00020000 [3] 710162
+            < [0] 6a84
+            > 00020000 [3] 710161
+            < [0] 9000
+        """.trimIndent() + "\n", trace.toString())
+    }
+
+    @Test
+    fun testTraceRedaction() {
+        val trace = ApduTraceBuffer(2, 4)
+        AbstractApplication.setTracer(trace)
+        try {
+            val app = OathApplication(FakeConnection(
+                    byteArrayOf(0x71, 1, 'a'.toByte(), 0x90.toByte(), 0x00),
+                    byteArrayOf(0x76, 5, 6, 1, 2, 3, 4, 0x90.toByte(), 0x00),
+                    byteArrayOf(0x90.toByte(), 0x00)
+            ))
+            app.deleteCredential("a")
+            app.calculate("a", ByteArray(8), true)
+            app.deleteCredential("b")
+        } finally {
+            AbstractApplication.setTracer(null)
+        }
+
+        Assert.assertEquals("""
+            > 00a20001 [13] <redacted>
+            < [7] <redacted> 9000
+            > 00020000 [3] 710162
+            < [0] 9000
+        """.trimIndent() + "\n", trace.toString())
+    }
+}
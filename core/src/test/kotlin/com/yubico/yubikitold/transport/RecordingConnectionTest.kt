@@ -0,0 +1,84 @@
+package com.yubico.yubikitold.transport
+
+import com.yubico.yubikitold.application.oath.OathApplication
+import org.junit.Assert
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+
+class RecordingConnectionTest {
+    private val ok = byteArrayOf(0x90.toByte(), 0x00)
+    private val select = byteArrayOf(0x79, 3, 5, 2, 4, 0x71, 1, 0x0a) + ok
+    private val entry = byteArrayOf(0x71, 3, 'f'.toByte(), 'o'.toByte(), 'o'.toByte(), 0x76, 5, 6, 0x12, 0x34, 0x56, 0x78)
+
+    private class ListConnection(vararg responses: ByteArray) : Iso7816Connection {
+        private val queue = responses.toMutableList()
+
+        override fun send(cla: Byte, ins: Byte, p1: Byte, p2: Byte, data: ByteArray): ByteArray {
+            Thread.sleep(2)
+            return queue.removeAt(0)
+        }
+
+        override fun close() = Unit
+    }
+
+    private fun record(redact: Boolean): ByteArray {
+        val out = ByteArrayOutputStream()
+        RecordingConnection(ListConnection(select, entry + byteArrayOf(0x61, 0x00), entry + ok), out, redact).use {
+            OathApplication(it).apply {
+                select()
+                calculateAll(ByteArray(8))
+            }
+        }
+        return out.toByteArray()
+    }
+
+    @Test
+    fun testReplay() {
+        val recording = record(true)
+        val replay = ReplayConnection(ByteArrayInputStream(recording), 0.0)
+        Assert.assertEquals(3, replay.remaining)
+
+        val app = OathApplication(replay)
+        app.select()
+        Assert.assertEquals("5.2.4", app.version.toString())
+        Assert.assertEquals(listOf("foo", "foo"), app.calculateAll(ByteArray(8)).map { it.name })
+        Assert.assertEquals(0, replay.remaining)
+
+        // Redacted command data is not compared, only its length.
+        replay.rewind()
+        app.select()
+        app.calculateAll(ByteArray(8) { 1 })
+
+        replay.rewind()
+        try {
+            app.deleteCredential("foo")
+            Assert.fail("Mismatching command accepted")
+        } catch (e: IOException) {
+            Assert.assertEquals(3, replay.remaining)
+        }
+    }
+
+    @Test
+    fun testTiming() {
+        val recording = record(false)
+        Assert.assertTrue(recording.size > record(true).size)
+
+        val replay = ReplayConnection(ByteArrayInputStream(recording), 1.0)
+        val start = System.nanoTime()
+        OathApplication(replay).select()
+        Assert.assertTrue(System.nanoTime() - start >= 2_000_000)
+
+        val strict = ReplayConnection(ByteArrayInputStream(recording), 1.0)
+        try {
+            OathApplication(strict).apply {
+                select()
+                calculateAll(ByteArray(8) { 1 })
+            }
+            Assert.fail("Command data not compared")
+        } catch (e: IOException) {
+            Assert.assertEquals(2, strict.remaining)
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.yubico.yubikitold.transport.usb
+
+import org.junit.Assert
+import org.junit.Test
+
+class CcidDescriptorTest {
+    private fun ccidDescriptor(features: Int, maxMessageLength: Int = 0x010f) = ByteArray(0x36).also {
+        it[0] = 0x36
+        it[1] = 0x21
+        for (i in 0..3) {
+            it[40 + i] = (features shr (8 * i)).toByte()
+            it[44 + i] = (maxMessageLength shr (8 * i)).toByte()
+        }
+    }
+
+    private fun interfaceDescriptor(interfaceClass: Int) = byteArrayOf(9, 0x04, 0, 0, 2, interfaceClass.toByte(), 0, 0, 0)
+
+    @Test
+    fun testFind() {
+        val config = byteArrayOf(9, 0x02, 0, 0, 1, 1, 0, 0x80.toByte(), 0x0f)
+        val hid = interfaceDescriptor(0x03) + ccidDescriptor(0)
+        val endpoint = byteArrayOf(7, 0x05, 0x81.toByte(), 0x02, 0x40, 0, 0)
+
+        val descriptor = CcidDescriptor.find(config + hid + interfaceDescriptor(0x0b) + ccidDescriptor(0x000404fe) + endpoint)
+        Assert.assertNotNull(descriptor)
+        Assert.assertTrue(descriptor!!.isExtendedApduSupported)
+
+        Assert.assertEquals(CcidDescriptor.ExchangeLevel.EXTENDED_APDU, descriptor.exchangeLevel)
+        Assert.assertEquals(0x010f, descriptor.maxMessageLength)
+
+        val shortOnly = CcidDescriptor.find(interfaceDescriptor(0x0b) + ccidDescriptor(0x000204fe, 0x0bff))
+        Assert.assertFalse(shortOnly!!.isExtendedApduSupported)
+        Assert.assertEquals(CcidDescriptor.ExchangeLevel.SHORT_APDU, shortOnly.exchangeLevel)
+        Assert.assertEquals(0x0bff, shortOnly.maxMessageLength)
+
+        Assert.assertEquals(CcidDescriptor.ExchangeLevel.TPDU, CcidDescriptor.find(interfaceDescriptor(0x0b) + ccidDescriptor(0x000104fe))!!.exchangeLevel)
+    }
+
+    @Test
+    fun testNotFound() {
+        Assert.assertNull(CcidDescriptor.find(interfaceDescriptor(0x03) + ccidDescriptor(0x000404fe)))
+        Assert.assertNull(CcidDescriptor.find(interfaceDescriptor(0x0b) + byteArrayOf(0x36, 0x21, 0)))
+        Assert.assertNull(CcidDescriptor.find(ByteArray(0)))
+    }
+}
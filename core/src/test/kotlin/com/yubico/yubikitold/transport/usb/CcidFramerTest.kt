@@ -0,0 +1,105 @@
+package com.yubico.yubikitold.transport.usb
+
+import org.junit.Assert
+import org.junit.Test
+import java.io.IOException
+
+class CcidFramerTest {
+    private fun dataBlock(sequence: Int, data: ByteArray, status: Int = 0) = byteArrayOf(
+            0x80.toByte(), data.size.toByte(), (data.size shr 8).toByte(), 0, 0, 0, sequence.toByte(), status.toByte(), 0, 0
+    ) + data
+
+    // Reads a message into the framer in packets, as a bulk in endpoint would deliver it.
+    private fun CcidFramer.receive(message: ByteArray, packetSize: Int): Boolean {
+        var offset = 0
+        var complete: Boolean
+        do {
+            val length = minOf(packetSize, message.size - offset)
+            val readOffset = readOffset
+            System.arraycopy(message, offset, inBuffer, readOffset, length)
+            complete = onPacketRead(length)
+            offset += length
+        } while (!complete && offset < message.size)
+        return complete
+    }
+
+    @Test
+    fun testEncode() {
+        val framer = CcidFramer(64)
+        Assert.assertEquals(10, framer.encodePowerOn())
+        Assert.assertArrayEquals(byteArrayOf(0x62, 0, 0, 0, 0, 0, 0, 0, 0, 0), framer.outBuffer.copyOf(10))
+        framer.receive(dataBlock(0, byteArrayOf(0x3b)), 64)
+        Assert.assertArrayEquals(byteArrayOf(0x3b), framer.decodeDataBlock())
+
+        val length = framer.encodeXfrBlock(0x00, 0xa4.toByte(), 0x04, 0x00, byteArrayOf(1, 2, 3), false)
+        Assert.assertArrayEquals(byteArrayOf(0x6f, 8, 0, 0, 0, 0, 1, 0, 0, 0, 0x00, 0xa4.toByte(), 0x04, 0x00, 3, 1, 2, 3), framer.outBuffer.copyOf(length))
+
+        val out = framer.outBuffer
+        framer.encodeXfrBlock(0, 1, 0, 0, ByteArray(0xff), false)
+        Assert.assertSame(out, framer.outBuffer)
+
+        val extended = framer.encodeXfrBlock(0, 1, 0, 0, ByteArray(300), true)
+        Assert.assertEquals(10 + 7 + 2 + 300, extended)
+        Assert.assertArrayEquals(byteArrayOf(0, 1, 0, 0, 0, 0x01, 0x2c), framer.outBuffer.copyOfRange(10, 17))
+    }
+
+    @Test
+    fun testReceive() {
+        val framer = CcidFramer(64)
+        framer.encodePowerOn()
+
+        // A response to another message and a time extension are skipped.
+        Assert.assertFalse(framer.receive(dataBlock(7, byteArrayOf()), 64))
+        Assert.assertFalse(framer.receive(dataBlock(0, byteArrayOf(), 0x80), 64))
+        Assert.assertEquals(1, framer.timeExtensions)
+
+        val data = ByteArray(1000) { it.toByte() }
+        Assert.assertTrue(framer.receive(dataBlock(0, data), 64))
+        val inBuffer = framer.inBuffer
+        Assert.assertArrayEquals(data, framer.decodeDataBlock())
+
+        framer.encodeXfrBlock(0, 1, 0, 0, ByteArray(0), false)
+        Assert.assertTrue(framer.receive(dataBlock(1, data), 64))
+        Assert.assertSame(inBuffer, framer.inBuffer)
+        Assert.assertArrayEquals(data, framer.decodeDataBlock())
+    }
+
+    @Test
+    fun testExactReads() {
+        val framer = CcidFramer(64, 3072)
+        val inBuffer = framer.inBuffer
+        Assert.assertEquals(3072, inBuffer.size)
+        Assert.assertEquals(3072, framer.outBuffer.size)
+
+        // The header packet is followed by a single read of the rest, with no trailing empty packet.
+        val message = dataBlock(0, ByteArray(118) { it.toByte() })
+        framer.encodePowerOn()
+        Assert.assertEquals(64, framer.readLength)
+        System.arraycopy(message, 0, framer.inBuffer, framer.readOffset, 64)
+        Assert.assertFalse(framer.onPacketRead(64))
+        Assert.assertEquals(64, framer.readLength)
+        System.arraycopy(message, 64, framer.inBuffer, framer.readOffset, 64)
+        Assert.assertTrue(framer.onPacketRead(64))
+        Assert.assertArrayEquals(message.copyOfRange(10, 128), framer.decodeDataBlock())
+        Assert.assertSame(inBuffer, framer.inBuffer)
+    }
+
+    @Test
+    fun testErrors() {
+        val framer = CcidFramer(64)
+        framer.encodePowerOn()
+        framer.receive(dataBlock(0, byteArrayOf(), 0x40), 64)
+        try {
+            framer.decodeDataBlock()
+            Assert.fail("Error status ignored")
+        } catch (e: IOException) {
+        }
+
+        framer.encodePowerOn()
+        try {
+            repeat(6) { framer.receive(dataBlock(0, byteArrayOf()), 64) }
+            Assert.fail("Mismatched sequence accepted")
+        } catch (e: IOException) {
+        }
+    }
+}
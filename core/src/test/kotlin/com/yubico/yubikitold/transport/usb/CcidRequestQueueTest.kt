@@ -0,0 +1,209 @@
+package com.yubico.yubikitold.transport.usb
+
+import com.yubico.yubikitold.transport.CommandApdu
+import org.junit.Assert
+import org.junit.Test
+import java.io.IOException
+import java.nio.ByteBuffer
+
+class CcidRequestQueueTest {
+    private fun dataBlock(sequence: Int, data: ByteArray, status: Int = 0) = byteArrayOf(
+            0x80.toByte(), data.size.toByte(), (data.size shr 8).toByte(), 0, 0, 0, sequence.toByte(), status.toByte(), 0, 0
+    ) + data
+
+    private fun command(data: ByteArray = ByteArray(0)) = CommandApdu(0, 1, 0, 0, data, false)
+
+    // A reader completing transfers only when told to, as UsbRequests complete on requestWait.
+    private class FakeReader(inPacketSize: Int = 64, outPacketSize: Int = 64, maxMessageLength: Int = 3072) : CcidRequestQueue.Transfers {
+        val queue = CcidRequestQueue(this, inPacketSize, outPacketSize, maxMessageLength)
+        val sent = mutableListOf<ByteArray>()
+        val readLengths = mutableListOf<Int>()
+        var failIn = false
+        private var outBuffer: ByteBuffer? = null
+        private var inBuffer: ByteBuffer? = null
+        private var inLength = 0
+
+        val outInFlight get() = outBuffer != null
+
+        override fun queueOut(buffer: ByteBuffer, length: Int): Boolean {
+            Assert.assertNull("OUT queued while in flight", outBuffer)
+            sent.add(buffer.array().copyOf(length))
+            outBuffer = buffer
+            return true
+        }
+
+        override fun queueIn(buffer: ByteBuffer, length: Int): Boolean {
+            Assert.assertNull("IN queued while in flight", inBuffer)
+            if (failIn) {
+                return false
+            }
+            readLengths.add(length)
+            inBuffer = buffer
+            inLength = length
+            return true
+        }
+
+        fun completeOut() {
+            Assert.assertNotNull(outBuffer)
+            outBuffer = null
+            queue.onOutComplete()
+        }
+
+        // Delivers the message in as many IN transfers as the queued read lengths take.
+        fun deliver(message: ByteArray) {
+            var offset = 0
+            while (offset < message.size) {
+                val buffer = inBuffer!!
+                val length = minOf(inLength, message.size - offset)
+                buffer.clear()
+                buffer.put(message, offset, length)
+                offset += length
+                inBuffer = null
+                queue.onInComplete()
+            }
+        }
+
+        fun exchange(response: ByteArray) {
+            while (outInFlight) {
+                completeOut()
+            }
+            deliver(response)
+        }
+    }
+
+    private fun openReader(reader: FakeReader = FakeReader()): FakeReader {
+        Assert.assertTrue(reader.queue.start())
+        val atr = reader.queue.enqueue(null)
+        reader.exchange(dataBlock(0, byteArrayOf(0x3b)))
+        Assert.assertArrayEquals(byteArrayOf(0x3b), atr.await())
+        return reader
+    }
+
+    @Test
+    fun testExchange() {
+        val reader = openReader()
+        Assert.assertArrayEquals(byteArrayOf(0x62, 0, 0, 0, 0, 0, 0, 0, 0, 0), reader.sent[0])
+
+        val future = reader.queue.enqueue(command(byteArrayOf(1, 2, 3)))
+        Assert.assertEquals(2, reader.sent.size)
+        Assert.assertFalse(future.isDone)
+        reader.exchange(dataBlock(1, byteArrayOf(0x90.toByte(), 0)))
+        Assert.assertArrayEquals(byteArrayOf(0x90.toByte(), 0), future.await())
+    }
+
+    @Test
+    fun testZeroLengthPacket() {
+        val reader = openReader()
+
+        // A 64 byte message needs an empty packet to end it.
+        val first = reader.queue.enqueue(command(ByteArray(49)))
+        val second = reader.queue.enqueue(command())
+        Assert.assertEquals(64, reader.sent.last().size)
+        reader.completeOut()
+        Assert.assertEquals(0, reader.sent.last().size)
+
+        // The response may be reaped before the empty packet is.
+        reader.deliver(dataBlock(1, byteArrayOf(0x90.toByte(), 0)))
+        Assert.assertTrue(first.isDone)
+        Assert.assertEquals(3, reader.sent.size)
+        Assert.assertTrue(reader.outInFlight)
+
+        // The next command is sent only once the empty packet has been reaped.
+        reader.completeOut()
+        Assert.assertEquals(4, reader.sent.size)
+        Assert.assertEquals(15, reader.sent.last().size)
+        reader.exchange(dataBlock(2, byteArrayOf(0x90.toByte(), 0)))
+        Assert.assertArrayEquals(byteArrayOf(0x90.toByte(), 0), second.await())
+    }
+
+    @Test
+    fun testReadLength() {
+        val reader = openReader()
+        val response = ByteArray(290) { it.toByte() }
+        val future = reader.queue.enqueue(command())
+        reader.readLengths.clear()
+        reader.exchange(dataBlock(1, response))
+        Assert.assertArrayEquals(response, future.await())
+
+        // A packet for the header, then the rest of the message, then a packet for the next one.
+        Assert.assertEquals(listOf(300 - 64, 64), reader.readLengths)
+    }
+
+    @Test
+    fun testTimeExtension() {
+        val reader = openReader()
+        var extensions = 0
+        reader.queue.setTimeExtensionListener { extensions++ }
+
+        val future = reader.queue.enqueue(command())
+        reader.exchange(dataBlock(1, ByteArray(0), 0x80))
+        reader.deliver(dataBlock(1, ByteArray(0), 0x80))
+        Assert.assertEquals(2, extensions)
+        Assert.assertFalse(future.isDone)
+
+        reader.deliver(dataBlock(1, byteArrayOf(0x90.toByte(), 0)))
+        Assert.assertArrayEquals(byteArrayOf(0x90.toByte(), 0), future.await())
+    }
+
+    @Test
+    fun testBatchOrder() {
+        val reader = openReader()
+        val futures = (1..3).map { reader.queue.enqueue(command(byteArrayOf(it.toByte()))) }
+        Assert.assertEquals(2, reader.sent.size)
+        futures.forEachIndexed { i, _ ->
+            Assert.assertEquals((i + 1).toByte(), reader.sent.last()[15])
+            reader.exchange(dataBlock(i + 1, byteArrayOf(i.toByte(), 0x90.toByte(), 0)))
+        }
+        futures.forEachIndexed { i, future ->
+            Assert.assertArrayEquals(byteArrayOf(i.toByte(), 0x90.toByte(), 0), future.await())
+        }
+    }
+
+    @Test
+    fun testCancel() {
+        val reader = openReader()
+        val first = reader.queue.enqueue(command())
+        val second = reader.queue.enqueue(command())
+        Assert.assertFalse(first.cancel(false))
+        Assert.assertTrue(second.cancel(false))
+        Assert.assertTrue(second.isCancelled)
+
+        reader.exchange(dataBlock(1, byteArrayOf(0x90.toByte(), 0)))
+        Assert.assertArrayEquals(byteArrayOf(0x90.toByte(), 0), first.await())
+        Assert.assertFalse(reader.outInFlight)
+    }
+
+    @Test
+    fun testReadFailure() {
+        val reader = openReader()
+        val first = reader.queue.enqueue(command())
+        val second = reader.queue.enqueue(command())
+        reader.failIn = true
+        reader.exchange(dataBlock(1, byteArrayOf(0x90.toByte(), 0)))
+
+        // The first response arrived, but nothing more can be read.
+        Assert.assertArrayEquals(byteArrayOf(0x90.toByte(), 0), first.await())
+        Assert.assertTrue(reader.queue.isClosed)
+        Assert.assertTrue(second.isDone)
+        try {
+            second.await()
+            Assert.fail()
+        } catch (e: IOException) {
+            Assert.assertEquals("Failed to read response", e.message)
+        }
+        Assert.assertTrue(reader.queue.enqueue(command()).isDone)
+    }
+
+    @Test
+    fun testClose() {
+        val reader = openReader()
+        val future = reader.queue.enqueue(command())
+        Assert.assertTrue(reader.queue.close(IOException("Connection closed")))
+        Assert.assertFalse(reader.queue.close(IOException("Connection closed")))
+        Assert.assertTrue(future.isDone)
+
+        // Late completions are ignored.
+        reader.completeOut()
+        reader.deliver(dataBlock(1, byteArrayOf(0x90.toByte(), 0)))
+    }
+}
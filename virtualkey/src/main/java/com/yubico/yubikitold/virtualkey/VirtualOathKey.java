@@ -0,0 +1,500 @@
+package com.yubico.yubikitold.virtualkey;
+
+import com.yubico.yubikitold.application.TlvWriter;
+import com.yubico.yubikitold.application.Version;
+import com.yubico.yubikitold.application.oath.HashAlgorithm;
+import com.yubico.yubikitold.application.oath.OathType;
+import com.yubico.yubikitold.transport.Iso7816Connection;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A software implementation of the YubiKey OATH applet, for tests and benchmarks.
+ * <p>
+ * Supports SELECT, LIST, PUT, DELETE, CALCULATE, CALCULATE ALL, VALIDATE, SET CODE and RESET,
+ * with command chaining and SEND REMAINING, and computes real HOTP and TOTP values. Credentials
+ * requiring touch are calculated by CALCULATE as if touched. Each APDU can be given a fixed latency
+ * to simulate a transport.
+ */
+public class VirtualOathKey implements Iso7816Connection {
+    public static final byte[] AID = new byte[]{(byte) 0xa0, 0x00, 0x00, 0x05, 0x27, 0x21, 0x01, 0x01};
+
+    private static final short SW_OK = (short) 0x9000;
+    private static final short SW_AUTH_REQUIRED = 0x6982;
+    private static final short SW_DATA_INVALID = 0x6984;
+    private static final short SW_WRONG_DATA = 0x6a80;
+    private static final short SW_FILE_NOT_FOUND = 0x6a82;
+    private static final short SW_FILE_FULL = 0x6a84;
+    private static final short SW_INCORRECT_P1P2 = 0x6a86;
+    private static final short SW_INS_NOT_SUPPORTED = 0x6d00;
+    private static final short SW_CLA_NOT_SUPPORTED = 0x6e00;
+
+    private static final byte CLA_CHAINING = 0x10;
+
+    private static final byte INS_SELECT = (byte) 0xa4;
+    private static final byte INS_PUT = 0x01;
+    private static final byte INS_DELETE = 0x02;
+    private static final byte INS_SET_CODE = 0x03;
+    private static final byte INS_RESET = 0x04;
+    private static final byte INS_LIST = (byte) 0xa1;
+    private static final byte INS_CALCULATE = (byte) 0xa2;
+    private static final byte INS_VALIDATE = (byte) 0xa3;
+    private static final byte INS_CALCULATE_ALL = (byte) 0xa4;
+    private static final byte INS_SEND_REMAINING = (byte) 0xa5;
+
+    private static final byte TAG_NAME = 0x71;
+    private static final byte TAG_NAME_LIST = 0x72;
+    private static final byte TAG_KEY = 0x73;
+    private static final byte TAG_CHALLENGE = 0x74;
+    private static final byte TAG_RESPONSE = 0x75;
+    private static final byte TAG_TRUNCATED = 0x76;
+    private static final byte TAG_HOTP = 0x77;
+    private static final byte TAG_PROPERTY = 0x78;
+    private static final byte TAG_VERSION = 0x79;
+    private static final byte TAG_IMF = 0x7a;
+    private static final byte TAG_ALGORITHM = 0x7b;
+    private static final byte TAG_TOUCH = 0x7c;
+
+    private static final byte PROPERTY_REQUIRE_TOUCH = 0x02;
+
+    private static final class Credential {
+        final OathType oathType;
+        final HashAlgorithm hashAlgorithm;
+        final int digits;
+        final byte[] key;
+        final boolean touch;
+        int counter;
+
+        Credential(OathType oathType, HashAlgorithm hashAlgorithm, int digits, byte[] key, boolean touch, int counter) {
+            this.oathType = oathType;
+            this.hashAlgorithm = hashAlgorithm;
+            this.digits = digits;
+            this.key = key;
+            this.touch = touch;
+            this.counter = counter;
+        }
+    }
+
+    private final SecureRandom random = new SecureRandom();
+    private final Version version;
+    private final byte[] deviceId;
+    private final Map<String, Credential> credentials = new LinkedHashMap<>();
+    private final ByteArrayOutputStream chained = new ByteArrayOutputStream();
+
+    private int capacity = 32;
+    private int maxNameLength = 64;
+    private int maxResponseLength = 0xff;
+    private boolean extendedLengthSupported = false;
+    private long latencyNanos = 0;
+
+    private boolean selected = false;
+    private byte[] accessKey;
+    private boolean authenticated = false;
+    private byte[] validateChallenge;
+    private byte[] remaining;
+    private int remainingOffset;
+    private int commands = 0;
+
+    public VirtualOathKey(Version version, byte[] deviceId) {
+        this.version = version;
+        this.deviceId = Arrays.copyOf(deviceId, deviceId.length);
+    }
+
+    public VirtualOathKey() {
+        this(new Version((byte) 5, (byte) 2, (byte) 4), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+    }
+
+    /**
+     * Creates a key holding the given number of TOTP credentials, named "Issuer NNN:userNNN@example.com",
+     * each with a distinct 20 byte SHA-1 key. Capacity is raised to fit if needed.
+     */
+    public static VirtualOathKey withCredentials(int count) {
+        VirtualOathKey key = new VirtualOathKey();
+        key.setCapacity(Math.max(count, key.capacity));
+        for (int i = 0; i < count; i++) {
+            byte[] secret = new byte[20];
+            Arrays.fill(secret, (byte) i);
+            key.addCredential(String.format("Issuer %03d:user%03d@example.com", i, i), secret, OathType.TOTP, HashAlgorithm.SHA1, 6, false);
+        }
+        return key;
+    }
+
+    /**
+     * The number of credentials that can be stored. A PUT of a new credential beyond this fails
+     * with 0x6a84 (file full). Defaults to 32, as on a real YubiKey.
+     */
+    public synchronized void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * The longest credential name a PUT accepts, in bytes. Defaults to 64, as on a real YubiKey.
+     * Raising it allows PUT commands long enough to need command chaining.
+     */
+    public synchronized void setMaxNameLength(int maxNameLength) {
+        this.maxNameLength = maxNameLength;
+    }
+
+    /**
+     * The maximum response data length per APDU, before the rest is returned with SEND REMAINING.
+     * Defaults to 255.
+     */
+    public synchronized void setMaxResponseLength(int maxResponseLength) {
+        this.maxResponseLength = maxResponseLength;
+    }
+
+    public synchronized void setExtendedLengthSupported(boolean extendedLengthSupported) {
+        this.extendedLengthSupported = extendedLengthSupported;
+    }
+
+    /**
+     * Sets a fixed delay for each APDU, to simulate the latency of a transport.
+     */
+    public synchronized void setLatency(long latency, TimeUnit unit) {
+        latencyNanos = unit.toNanos(latency);
+    }
+
+    /**
+     * Stores a credential directly, without going through a PUT command.
+     */
+    public synchronized void addCredential(String name, byte[] key, OathType oathType, HashAlgorithm hashAlgorithm, int digits, boolean touch) {
+        try {
+            credentials.put(name, new Credential(oathType, hashAlgorithm, digits, hashAlgorithm.prepareKey(key), touch, 0));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public synchronized int getCredentialCount() {
+        return credentials.size();
+    }
+
+    /**
+     * The number of APDUs received, including SEND REMAINING and chained parts.
+     */
+    public synchronized int getCommandCount() {
+        return commands;
+    }
+
+    @Override
+    public synchronized boolean isExtendedLengthSupported() {
+        return extendedLengthSupported;
+    }
+
+    @Override
+    public synchronized byte[] send(byte cla, byte ins, byte p1, byte p2, byte[] data) {
+        return process(cla, ins, p1, p2, data, maxResponseLength);
+    }
+
+    @Override
+    public synchronized byte[] sendExtended(byte cla, byte ins, byte p1, byte p2, byte[] data) {
+        if (!extendedLengthSupported) {
+            throw new UnsupportedOperationException("Extended length APDUs are not supported");
+        }
+        return process(cla, ins, p1, p2, data, 0x10000);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private byte[] process(byte cla, byte ins, byte p1, byte p2, byte[] data, int responseLimit) {
+        commands++;
+        if (latencyNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(latencyNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (ins == INS_SEND_REMAINING && remaining != null) {
+            return nextChunk(responseLimit);
+        }
+        remaining = null;
+
+        if ((cla & ~CLA_CHAINING) != 0) {
+            return status(SW_CLA_NOT_SUPPORTED);
+        }
+        chained.write(data, 0, data.length);
+        if ((cla & CLA_CHAINING) != 0) {
+            return status(SW_OK);
+        }
+        byte[] command = chained.toByteArray();
+        chained.reset();
+
+        TlvWriter response = new TlvWriter();
+        short sw;
+        try {
+            sw = dispatch(ins, p1, p2, command, response);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            sw = SW_WRONG_DATA;
+        }
+        if (sw != SW_OK) {
+            return status(sw);
+        }
+        remaining = response.toByteArray();
+        remainingOffset = 0;
+        return nextChunk(responseLimit);
+    }
+
+    private short dispatch(byte ins, byte p1, byte p2, byte[] data, TlvWriter response) {
+        // SELECT and CALCULATE ALL share an INS byte, SELECT is told apart by P1.
+        if (ins == INS_SELECT && p1 == 0x04) {
+            return select(data, response);
+        }
+        if (!selected) {
+            return SW_INS_NOT_SUPPORTED;
+        }
+        if (ins == INS_RESET) {
+            return reset(p1, p2);
+        }
+        if (ins == INS_VALIDATE) {
+            return validate(parse(data), response);
+        }
+        if (accessKey != null && !authenticated) {
+            return SW_AUTH_REQUIRED;
+        }
+        switch (ins) {
+            case INS_PUT:
+                return put(parse(data));
+            case INS_DELETE:
+                return credentials.remove(getName(parse(data))) != null ? SW_OK : SW_DATA_INVALID;
+            case INS_SET_CODE:
+                return setCode(parse(data));
+            case INS_LIST:
+                for (Map.Entry<String, Credential> entry : credentials.entrySet()) {
+                    byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                    Credential credential = entry.getValue();
+                    response.putHeader(TAG_NAME_LIST, 1 + name.length)
+                            .putByte((byte) (credential.oathType.value | credential.hashAlgorithm.value))
+                            .putBytes(name);
+                }
+                return SW_OK;
+            case INS_CALCULATE:
+                return calculate(parse(data), p2 == 1, response);
+            case INS_CALCULATE_ALL:
+                return calculateAll(parse(data), response);
+            default:
+                return SW_INS_NOT_SUPPORTED;
+        }
+    }
+
+    private short select(byte[] data, TlvWriter response) {
+        if (!Arrays.equals(data, AID)) {
+            selected = false;
+            return SW_FILE_NOT_FOUND;
+        }
+        selected = true;
+        authenticated = false;
+        response.put(TAG_VERSION, version.getBytes()).put(TAG_NAME, deviceId);
+        if (accessKey != null) {
+            validateChallenge = new byte[8];
+            random.nextBytes(validateChallenge);
+            response.put(TAG_CHALLENGE, validateChallenge);
+            response.putHeader(TAG_ALGORITHM, 1).putByte(HashAlgorithm.SHA1.value);
+        }
+        return SW_OK;
+    }
+
+    private short reset(byte p1, byte p2) {
+        if (p1 != (byte) 0xde || p2 != (byte) 0xad) {
+            return SW_INCORRECT_P1P2;
+        }
+        credentials.clear();
+        accessKey = null;
+        authenticated = false;
+        return SW_OK;
+    }
+
+    private short validate(Map<Byte, byte[]> data, TlvWriter response) {
+        byte[] expected = data.get(TAG_RESPONSE);
+        byte[] challenge = data.get(TAG_CHALLENGE);
+        if (accessKey == null || validateChallenge == null || expected == null || challenge == null) {
+            return SW_WRONG_DATA;
+        }
+        boolean valid = MessageDigest.isEqual(hmac(HashAlgorithm.SHA1, accessKey, validateChallenge), expected);
+        validateChallenge = null;
+        if (!valid) {
+            return SW_DATA_INVALID;
+        }
+        authenticated = true;
+        response.put(TAG_RESPONSE, hmac(HashAlgorithm.SHA1, accessKey, challenge));
+        return SW_OK;
+    }
+
+    private short setCode(Map<Byte, byte[]> data) {
+        byte[] key = data.get(TAG_KEY);
+        if (key == null) {
+            return SW_WRONG_DATA;
+        }
+        if (key.length == 0) {
+            accessKey = null;
+            return SW_OK;
+        }
+        byte[] secret = Arrays.copyOfRange(key, 1, key.length);
+        byte[] challenge = data.get(TAG_CHALLENGE);
+        byte[] expected = data.get(TAG_RESPONSE);
+        if (challenge == null || expected == null) {
+            return SW_WRONG_DATA;
+        }
+        if (!MessageDigest.isEqual(hmac(HashAlgorithm.SHA1, secret, challenge), expected)) {
+            return SW_DATA_INVALID;
+        }
+        accessKey = secret;
+        authenticated = true;
+        return SW_OK;
+    }
+
+    private short put(Map<Byte, byte[]> data) {
+        String name = getName(data);
+        byte[] key = data.get(TAG_KEY);
+        if (name.isEmpty() || name.length() > maxNameLength || key == null || key.length < 2) {
+            return SW_WRONG_DATA;
+        }
+        if (!credentials.containsKey(name) && credentials.size() >= capacity) {
+            return SW_FILE_FULL;
+        }
+        byte[] property = data.get(TAG_PROPERTY);
+        byte[] imf = data.get(TAG_IMF);
+        credentials.put(name, new Credential(
+                OathType.fromValue((byte) (key[0] & 0xf0)),
+                HashAlgorithm.fromValue((byte) (key[0] & 0x0f)),
+                key[1],
+                Arrays.copyOfRange(key, 2, key.length),
+                property != null && (property[0] & PROPERTY_REQUIRE_TOUCH) != 0,
+                imf == null ? 0 : ByteBuffer.wrap(imf).getInt()
+        ));
+        return SW_OK;
+    }
+
+    private short calculate(Map<Byte, byte[]> data, boolean truncate, TlvWriter response) {
+        Credential credential = credentials.get(getName(data));
+        byte[] challenge = data.get(TAG_CHALLENGE);
+        if (credential == null) {
+            return SW_DATA_INVALID;
+        }
+        if (challenge == null) {
+            return SW_WRONG_DATA;
+        }
+        byte[] hmac = calculate(credential, challenge);
+        if (truncate) {
+            response.putHeader(TAG_TRUNCATED, 5).putByte((byte) credential.digits).putInt(truncate(hmac));
+        } else {
+            response.putHeader(TAG_RESPONSE, 1 + hmac.length).putByte((byte) credential.digits).putBytes(hmac);
+        }
+        return SW_OK;
+    }
+
+    private short calculateAll(Map<Byte, byte[]> data, TlvWriter response) {
+        byte[] challenge = data.get(TAG_CHALLENGE);
+        if (challenge == null) {
+            return SW_WRONG_DATA;
+        }
+        for (Map.Entry<String, Credential> entry : credentials.entrySet()) {
+            Credential credential = entry.getValue();
+            response.putUtf8(TAG_NAME, entry.getKey());
+            if (credential.oathType == OathType.HOTP) {
+                response.putHeader(TAG_HOTP, 1).putByte((byte) credential.digits);
+            } else if (credential.touch) {
+                response.putHeader(TAG_TOUCH, 1).putByte((byte) credential.digits);
+            } else {
+                response.putHeader(TAG_TRUNCATED, 5).putByte((byte) credential.digits).putInt(truncate(calculate(credential, challenge)));
+            }
+        }
+        return SW_OK;
+    }
+
+    private byte[] calculate(Credential credential, byte[] challenge) {
+        if (credential.oathType == OathType.HOTP) {
+            challenge = ByteBuffer.allocate(8).putLong(credential.counter++ & 0xffffffffL).array();
+        }
+        return hmac(credential.hashAlgorithm, credential.key, challenge);
+    }
+
+    private byte[] nextChunk(int responseLimit) {
+        int length = Math.min(responseLimit, remaining.length - remainingOffset);
+        byte[] chunk = Arrays.copyOfRange(remaining, remainingOffset, remainingOffset + length + 2);
+        remainingOffset += length;
+        int left = remaining.length - remainingOffset;
+        if (left > 0) {
+            chunk[length] = 0x61;
+            chunk[length + 1] = (byte) Math.min(left, 0xff);
+        } else {
+            chunk[length] = (byte) (SW_OK >> 8);
+            chunk[length + 1] = (byte) SW_OK;
+            remaining = null;
+        }
+        return chunk;
+    }
+
+    private static byte[] status(short sw) {
+        return new byte[]{(byte) (sw >> 8), (byte) sw};
+    }
+
+    private static int truncate(byte[] hmac) {
+        int offset = hmac[hmac.length - 1] & 0xf;
+        return ByteBuffer.wrap(hmac, offset, 4).getInt() & 0x7fffffff;
+    }
+
+    private static byte[] hmac(HashAlgorithm algorithm, byte[] key, byte[] message) {
+        try {
+            Mac mac = Mac.getInstance("Hmac" + algorithm.name());
+            mac.init(new SecretKeySpec(key, mac.getAlgorithm()));
+            return mac.doFinal(message);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String getName(Map<Byte, byte[]> data) {
+        byte[] name = data.get(TAG_NAME);
+        if (name == null) {
+            throw new IllegalArgumentException("Missing name");
+        }
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses command data into a map from tag to value. The property tag is followed directly by
+     * its value byte, without a length, as sent by the OATH applet's clients.
+     */
+    private static Map<Byte, byte[]> parse(byte[] data) {
+        Map<Byte, byte[]> values = new HashMap<>();
+        int offset = 0;
+        while (offset < data.length) {
+            byte tag = data[offset++];
+            if (tag == TAG_PROPERTY) {
+                values.put(tag, new byte[]{data[offset++]});
+                continue;
+            }
+            int length = data[offset++] & 0xff;
+            if (length == 0x81) {
+                length = data[offset++] & 0xff;
+            } else if (length == 0x82) {
+                length = (data[offset++] & 0xff) << 8 | (data[offset++] & 0xff);
+            } else if (length > 0x80) {
+                throw new IllegalArgumentException("Unsupported length");
+            }
+            if (offset + length > data.length) {
+                throw new IllegalArgumentException("Value exceeds data");
+            }
+            values.put(tag, Arrays.copyOfRange(data, offset, offset + length));
+            offset += length;
+        }
+        return values;
+    }
+}
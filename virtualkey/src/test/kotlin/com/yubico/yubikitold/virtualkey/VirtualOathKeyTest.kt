@@ -0,0 +1,103 @@
+package com.yubico.yubikitold.virtualkey
+
+import com.yubico.yubikitold.application.ApduException
+import com.yubico.yubikitold.application.oath.ChallengeSigner
+import com.yubico.yubikitold.application.oath.HashAlgorithm
+import com.yubico.yubikitold.application.oath.OathApplication
+import com.yubico.yubikitold.application.oath.OathType
+import org.junit.Assert
+import org.junit.Test
+import javax.crypto.Mac
+import javax.crypto.spec.SecretKeySpec
+
+class VirtualOathKeyTest {
+    private val timeStep1 = byteArrayOf(0, 0, 0, 0, 0, 0, 0, 1)
+
+    @Test
+    fun testRfcVectors() {
+        val app = OathApplication(VirtualOathKey()).apply { select() }
+        app.putCredential("sha1", "12345678901234567890".toByteArray(), OathType.TOTP, HashAlgorithm.SHA1, 8, 0, false)
+        app.putCredential("sha256", "12345678901234567890123456789012".toByteArray(), OathType.TOTP, HashAlgorithm.SHA256, 8, 0, false)
+        app.putCredential("sha512", "1234567890123456789012345678901234567890123456789012345678901234".toByteArray(), OathType.TOTP, HashAlgorithm.SHA512, 8, 0, false)
+        app.putCredential("hotp", "12345678901234567890".toByteArray(), OathType.HOTP, HashAlgorithm.SHA1, 6, 0, false)
+
+        Assert.assertEquals("94287082", app.calculate("sha1", timeStep1, true).formatTruncated())
+        Assert.assertEquals("46119246", app.calculate("sha256", timeStep1, true).formatTruncated())
+        Assert.assertEquals("90693936", app.calculate("sha512", timeStep1, true).formatTruncated())
+        Assert.assertEquals("755224", app.calculate("hotp", ByteArray(0), true).formatTruncated())
+        Assert.assertEquals("287082", app.calculate("hotp", ByteArray(0), true).formatTruncated())
+        Assert.assertEquals(listOf("sha1", "sha256", "sha512", "hotp"), app.listCredentials().map { it.name })
+    }
+
+    @Test
+    fun testManyCredentials() {
+        val key = VirtualOathKey.withCredentials(200)
+        val app = OathApplication(key).apply { select() }
+        val responses = app.calculateAll(ByteArray(8))
+
+        Assert.assertEquals(200, responses.size)
+        Assert.assertEquals("Issuer 199:user199@example.com", responses[199].name)
+        Assert.assertTrue(key.commandCount > 2)  // SELECT, CALCULATE ALL and SEND REMAINING
+
+        try {
+            app.putCredential("one too many", ByteArray(20), OathType.TOTP, HashAlgorithm.SHA1, 6, 0, false)
+            Assert.fail("Capacity exceeded")
+        } catch (e: ApduException) {
+            Assert.assertEquals(OathApplication.SW_FILE_FULL, e.sw)
+        }
+    }
+
+    @Test
+    fun testChainingAndDelete() {
+        val key = VirtualOathKey().apply { setMaxNameLength(255) }
+        val app = OathApplication(key).apply { select() }
+        // A full SHA512 block is stored as is, which with the name makes a PUT of over 255 bytes.
+        val name = "x".repeat(200)
+        val secret = ByteArray(128) { it.toByte() }
+        app.putCredential(name, secret, OathType.TOTP, HashAlgorithm.SHA512, 6, 0, false)
+        Assert.assertEquals(3, key.commandCount)  // SELECT and a PUT chained over two APDUs
+        Assert.assertEquals(1, key.credentialCount)
+
+        val reference = OathApplication(VirtualOathKey().apply {
+            addCredential("short", secret, OathType.TOTP, HashAlgorithm.SHA512, 6, false)
+        }).apply { select() }
+        Assert.assertEquals(reference.calculate("short", timeStep1, true).formatTruncated(), app.calculate(name, timeStep1, true).formatTruncated())
+
+        app.deleteCredential(name)
+        try {
+            app.deleteCredential(name)
+            Assert.fail("Deleted missing credential")
+        } catch (e: ApduException) {
+            Assert.assertEquals(OathApplication.SW_DATA_INVALID, e.sw)
+        }
+    }
+
+    @Test
+    fun testPassword() {
+        val app = OathApplication(VirtualOathKey.withCredentials(2)).apply { select() }
+        val secret = OathApplication.calculateKey(app.deviceId, "password")
+        app.setLockCode(secret)
+
+        app.select()
+        Assert.assertTrue(app.isLocked)
+        try {
+            app.listCredentials()
+            Assert.fail("Locked key listed credentials")
+        } catch (e: ApduException) {
+            Assert.assertEquals(OathApplication.SW_AUTH_REQUIRED, e.sw)
+        }
+
+        app.unlock(ChallengeSigner {
+            Mac.getInstance("HmacSHA1").run {
+                init(SecretKeySpec(secret, algorithm))
+                doFinal(it)
+            }
+        })
+        Assert.assertEquals(2, app.listCredentials().size)
+
+        app.reset()
+        app.select()
+        Assert.assertFalse(app.isLocked)
+        Assert.assertEquals(0, app.listCredentials().size)
+    }
+}